@@ -0,0 +1,166 @@
+import ai.core.AI;
+import nmcts.PackedUnitAction;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+import util.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks that UMSBot instances share no search state. A seeded template bot is cloned once per match, and the matches
+ * are played one after the other, then all at once on as many threads. Both runs use the same seeds and an iteration
+ * budget, so every match must end the same way in both: same winner, same length, and the same actions issued by
+ * UMSBot all along. Any difference is reported, and the run exits with code 1.
+ *
+ * The parallel unit filtering, and the caches it shares between threads, are exercised on every map: the clones filter
+ * units in parallel past a low threshold, with the filtered actions cache on.
+ *
+ * Usage: java ConcurrentMatchStress [options]
+ *   -maps files       The maps (default maps/8x8/basesWorkers8x8.xml and the 64x64 maps/BroodWar/(4)BloodBath.scmB.xml).
+ *   -opponent class   The opponent's class name, which must play deterministically (default ai.abstraction.WorkerRush).
+ *   -matches n        Matches per run, played concurrently in the second run (default 8).
+ *   -seed n           Base seed, match i seeds its clone with seed + i (default 0).
+ *   -iterations n     UMSBot's iteration budget per decision (default 100).
+ *   -maxCycles n      Game length limit (default 1000).
+ *   -parallelThreshold n  Parallel filtering threshold forced on UMSBot, -1 to keep its own (default 8).
+ * Maps are assigned to the matches in turn, and UMSBot switches sides from one match to the next.
+ */
+public class ConcurrentMatchStress {
+
+    private final List<String> maps = new ArrayList<>();
+    private String opponent = "ai.abstraction.WorkerRush";
+    private int matches = 8;
+    private long seed = 0;
+    private int iterationsBudget = 100;
+    private int maxCycles = 1000;
+    private int parallelThreshold = 8;
+
+    private final UnitTypeTable unitTypeTable = new UnitTypeTable();
+
+    public static void main(String[] args) throws Exception {
+        ConcurrentMatchStress stress = new ConcurrentMatchStress();
+        stress.parseArguments(args);
+        if (!stress.run())
+            System.exit(1);
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("Missing value for option: " + args[i]);
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-maps": maps.addAll(Arrays.asList(value.split(","))); break;
+                case "-opponent": opponent = value; break;
+                case "-matches": matches = Integer.parseInt(value); break;
+                case "-seed": seed = Long.parseLong(value); break;
+                case "-iterations": iterationsBudget = Integer.parseInt(value); break;
+                case "-maxCycles": maxCycles = Integer.parseInt(value); break;
+                case "-parallelThreshold": parallelThreshold = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (maps.isEmpty())
+            maps.addAll(Arrays.asList("maps/8x8/basesWorkers8x8.xml", "maps/BroodWar/(4)BloodBath.scmB.xml"));
+    }
+
+    /**
+     * Plays the matches sequentially, then concurrently, and compares their outcomes.
+     *
+     * @return True if every match ended the same way in both runs.
+     */
+    private boolean run() throws Exception {
+        UMSBot template = new UMSBot(unitTypeTable);
+        template.setTimeBudget(-1);
+        template.setIterationsBudget(iterationsBudget);
+
+        long startTime = System.currentTimeMillis();
+        String[] sequentialOutcomes = new String[matches];
+        for (int i = 0; i < matches; i++)
+            sequentialOutcomes[i] = play(template, i);
+        long sequentialTime = System.currentTimeMillis() - startTime;
+
+        ExecutorService executor = Executors.newFixedThreadPool(matches);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        List<Future<String>> concurrentOutcomes = new ArrayList<>();
+        for (int i = 0; i < matches; i++) {
+            final int match = i;
+            concurrentOutcomes.add(executor.submit(() -> {
+                startSignal.await(); // All matches start together.
+                return play(template, match);
+            }));
+        }
+        startTime = System.currentTimeMillis();
+        startSignal.countDown();
+
+        boolean passed = true;
+        for (int i = 0; i < matches; i++) {
+            String concurrentOutcome = concurrentOutcomes.get(i).get();
+            boolean identical = sequentialOutcomes[i].equals(concurrentOutcome);
+            passed &= identical;
+            System.out.println("Match " + i + " (" + getMap(i) + ", seed " + (seed + i) + "): " +
+                    (identical ? "identical, " + concurrentOutcome :
+                            "MISMATCH, sequential " + sequentialOutcomes[i] + ", concurrent " + concurrentOutcome));
+        }
+        long concurrentTime = System.currentTimeMillis() - startTime;
+        executor.shutdown();
+
+        System.out.println((passed ? "All " + matches + " matches identical" : "Concurrent matches diverged") +
+                ", sequential: " + (sequentialTime / 1000f) + "s, concurrent: " + (concurrentTime / 1000f) + "s.");
+        return passed;
+    }
+
+    private String getMap(int match) {
+        return maps.get(match % maps.size());
+    }
+
+    /**
+     * Plays a match with a seeded clone of the template.
+     *
+     * @param template The bot to clone.
+     * @param match The match's index.
+     * @return The match's outcome: winner, length, and a hash of UMSBot's actions.
+     */
+    private String play(UMSBot template, int match) throws Exception {
+        int player = match % 2;
+        GameState gameState = new GameState(PhysicalGameState.load(getMap(match), unitTypeTable), unitTypeTable);
+
+        UMSBot bot = (UMSBot) template.clone();
+        bot.setSeed(seed + match);
+        bot.player = player;
+        bot.initialize(gameState);
+        bot.started = true;
+        if (parallelThreshold != -1)
+            bot.parameters.setParallelGenerationThreshold(parallelThreshold);
+        bot.parameters.setCacheFilteredActions(true);
+        AI[] ais = new AI[2];
+        ais[player] = bot;
+        ais[1 - player] = (AI) Class.forName(opponent).getConstructor(UnitTypeTable.class).newInstance(unitTypeTable);
+
+        long actionsHash = 17;
+        boolean gameOver;
+        do {
+            PlayerAction[] playerActions = new PlayerAction[2];
+            for (int p = 0; p < 2; p++)
+                playerActions[p] = ais[p].getAction(p, gameState);
+            for (Pair<Unit, UnitAction> unitAction : playerActions[player].getActions())
+                actionsHash = (actionsHash * 31 + unitAction.m_a.getID()) * 31 + PackedUnitAction.pack(unitAction.m_b);
+            gameState.issueSafe(playerActions[0]);
+            gameState.issueSafe(playerActions[1]);
+            gameOver = gameState.cycle();
+        } while (!gameOver && gameState.getTime() < maxCycles);
+
+        return "winner " + gameState.winner() + ", cycles " + gameState.getTime() +
+                ", actions " + Long.toHexString(actionsHash);
+    }
+}
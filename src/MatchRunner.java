@@ -0,0 +1,212 @@
+import ai.core.AI;
+import nmcts.ParametricNMCTS;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.units.UnitTypeTable;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs headless matches between UMSBot and baseline AIs, one match per thread of a fixed pool, in a single JVM. Every
+ * map is played against every opponent a number of times, UMSBot switching sides from one game to the next. Results
+ * are streamed as CSV lines, one per game, and the aggregate throughput is printed to the error stream at the end.
+ *
+ * Usage: java MatchRunner -maps maps/8x8/basesWorkers8x8.xml,... -opponents ai.abstraction.WorkerRush,... [options]
+ *   -games n          Games per map and opponent (default 10).
+ *   -threads n        Concurrent matches (default: available processors).
+ *   -seed n           Base seed, game i seeds UMSBot's search with seed + i (default 0).
+ *   -maxCycles n      Game length limit (default: the competition's limit for the map size).
+ *   -timeBudget ms    UMSBot's time budget per decision (default 100).
+ *   -iterations n     UMSBot's iteration budget per decision (default -1, unbounded).
+ *   -scriptedOpponent b  If true, UMSBot's search models the opponent with scripts (default false).
+ *   -out file         CSV output file (default: standard output).
+ * Opponents are given by class name, and constructed from a UnitTypeTable.
+ */
+public class MatchRunner {
+
+    private static final String CSV_HEADER = "game,map,opponent,player,seed,result,cycles,decisions," +
+            "meanLatencyMs,maxLatencyMs,iterations,wallTimeMs";
+
+    private final List<String> maps = new ArrayList<>();
+    private final List<String> opponents = new ArrayList<>();
+    private int games = 10;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long seed = 0;
+    private int maxCycles = -1; // -1: per map size.
+    private int timeBudget = 100;
+    private int iterationsBudget = -1;
+    private boolean scriptedOpponent = false;
+    private PrintStream output = System.out;
+
+    // Aggregates
+    private final AtomicInteger wins = new AtomicInteger();
+    private final AtomicInteger draws = new AtomicInteger();
+    private final AtomicInteger losses = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicLong totalDecisions = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong(); // Nanoseconds.
+
+    public static void main(String[] args) throws Exception {
+        MatchRunner runner = new MatchRunner();
+        runner.parseArguments(args);
+        runner.run();
+    }
+
+    private void parseArguments(String[] args) throws Exception {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("Missing value for option: " + args[i]);
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-maps": maps.addAll(Arrays.asList(value.split(","))); break;
+                case "-opponents": opponents.addAll(Arrays.asList(value.split(","))); break;
+                case "-games": games = Integer.parseInt(value); break;
+                case "-threads": threads = Integer.parseInt(value); break;
+                case "-seed": seed = Long.parseLong(value); break;
+                case "-maxCycles": maxCycles = Integer.parseInt(value); break;
+                case "-timeBudget": timeBudget = Integer.parseInt(value); break;
+                case "-iterations": iterationsBudget = Integer.parseInt(value); break;
+                case "-scriptedOpponent": scriptedOpponent = Boolean.parseBoolean(value); break;
+                case "-out": output = new PrintStream(new FileOutputStream(value), true); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (maps.isEmpty() || opponents.isEmpty())
+            throw new IllegalArgumentException("At least one map (-maps) and one opponent (-opponents) are required.");
+    }
+
+    /**
+     * Schedules all the games on the thread pool, and waits for them to end.
+     */
+    public void run() throws InterruptedException {
+        output.println(CSV_HEADER);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long startTime = System.currentTimeMillis();
+
+        int game = 0;
+        for (String map : maps)
+            for (String opponent : opponents)
+                for (int i = 0; i < games; i++) {
+                    final int gameIndex = game++;
+                    executor.submit(() -> playAndReport(gameIndex, map, opponent, gameIndex % 2, seed + gameIndex));
+                }
+
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        printSummary(System.currentTimeMillis() - startTime);
+        if (output != System.out)
+            output.close();
+    }
+
+    private void playAndReport(int game, String map, String opponent, int player, long gameSeed) {
+        try {
+            String result = play(game, map, opponent, player, gameSeed);
+            synchronized (output) {
+                output.println(result);
+            }
+        } catch (Exception exception) {
+            errors.incrementAndGet();
+            System.err.println("Game " + game + " (" + map + ", " + opponent + ") failed:");
+            exception.printStackTrace();
+        }
+    }
+
+    /**
+     * Plays a single game, and returns its CSV line.
+     *
+     * @param game The game's index.
+     * @param map The map file.
+     * @param opponent The opponent's class name.
+     * @param player UMSBot's player ID.
+     * @param gameSeed The seed of UMSBot's search.
+     * @return The game's CSV line.
+     */
+    private String play(int game, String map, String opponent, int player, long gameSeed) throws Exception {
+        UnitTypeTable unitTypeTable = new UnitTypeTable();
+        GameState gameState = new GameState(PhysicalGameState.load(map, unitTypeTable), unitTypeTable);
+
+        UMSBot bot = new UMSBot(unitTypeTable);
+        bot.setTimeBudget(timeBudget);
+        bot.setIterationsBudget(iterationsBudget);
+        bot.setSeed(gameSeed);
+        bot.setScriptedOpponent(scriptedOpponent);
+        AI[] ais = new AI[2];
+        ais[player] = bot;
+        ais[1 - player] = (AI) Class.forName(opponent).getConstructor(UnitTypeTable.class).newInstance(unitTypeTable);
+
+        int gameMaxCycles = maxCycles != -1 ? maxCycles :
+                getDefaultMaxCycles(gameState.getPhysicalGameState().getWidth());
+        long decisions = 0, latency = 0, maxLatency = 0;
+        long startTime = System.currentTimeMillis();
+
+        boolean gameOver;
+        do {
+            PlayerAction[] playerActions = new PlayerAction[2];
+            for (int p = 0; p < 2; p++) {
+                boolean decision = p == player && gameState.canExecuteAnyAction(p);
+                long decisionStart = System.nanoTime();
+                playerActions[p] = ais[p].getAction(p, gameState);
+                if (decision) { // Frames where UMSBot has nothing to decide are not timed.
+                    long decisionLatency = System.nanoTime() - decisionStart;
+                    decisions++;
+                    latency += decisionLatency;
+                    maxLatency = Math.max(decisionLatency, maxLatency);
+                }
+            }
+            gameState.issueSafe(playerActions[0]);
+            gameState.issueSafe(playerActions[1]);
+            gameOver = gameState.cycle();
+        } while (!gameOver && gameState.getTime() < gameMaxCycles);
+
+        int winner = gameState.winner();
+        ais[0].gameOver(winner);
+        ais[1].gameOver(winner);
+
+        String result;
+        if (winner == player) { result = "win"; wins.incrementAndGet(); }
+        else if (winner == -1) { result = "draw"; draws.incrementAndGet(); }
+        else { result = "loss"; losses.incrementAndGet(); }
+        totalDecisions.addAndGet(decisions);
+        totalLatency.addAndGet(latency);
+
+        long iterations = bot.agent instanceof ParametricNMCTS ? ((ParametricNMCTS) bot.agent).getTotalRuns() : -1;
+        return game + "," + map + "," + opponent + "," + player + "," + gameSeed + "," + result + "," +
+                gameState.getTime() + "," + decisions + "," +
+                String.format(Locale.ROOT, "%.3f", decisions == 0 ? 0 : latency / 1e6 / decisions) + "," +
+                String.format(Locale.ROOT, "%.3f", maxLatency / 1e6) + "," + iterations + "," +
+                (System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Returns the game length limit used in the microRTS competition for the map width.
+     */
+    private static int getDefaultMaxCycles(int mapWidth) {
+        if (mapWidth <= 8) return 3000;
+        else if (mapWidth <= 16) return 4000;
+        else if (mapWidth <= 24) return 5000;
+        else if (mapWidth <= 32) return 6000;
+        else if (mapWidth <= 64) return 8000;
+        return 12000;
+    }
+
+    private void printSummary(long elapsedTime) {
+        int played = wins.get() + draws.get() + losses.get();
+        System.err.println("Games: " + played + " (W/D/L: " + wins.get() + "/" + draws.get() + "/" + losses.get() +
+                ", errors: " + errors.get() + ")" +
+                ", Elapsed: " + (elapsedTime / 1000f) + "s" +
+                ", Throughput: " + String.format(Locale.ROOT, "%.2f", played / (elapsedTime / 60000.0)) + " games/min" +
+                ", Mean decision latency: " + String.format(Locale.ROOT, "%.3f", totalDecisions.get() == 0 ? 0 :
+                        totalLatency.get() / 1e6 / totalDecisions.get()) + "ms");
+    }
+}
@@ -0,0 +1,296 @@
+import nmcts.ParametricNMCTS;
+import preselection.ParametricActionGenerator;
+import rts.GameState;
+import rts.units.UnitTypeTable;
+import trace.GameTraceReader;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Benchmarks UMSBot's search on recorded game positions. The frames of the given traces (see trace.GameTraceRecorder)
+ * where the recording bot had units to command are replayed through ParametricNMCTS, configured by UMSBot for the map
+ * size, with a fixed seed and iteration budget and a fresh search for every frame. Results are grouped by map size:
+ * p50/p95/p99 decision time, iterations per second, bytes allocated per decision (by the deciding thread and the
+ * common fork-join pool's workers, used by the parallel unit filtering), tree size, and the time taken by
+ * ParametricActionGenerator to generate the root's choices.
+ *
+ * The results can be saved as a baseline properties file, and compared with a stored baseline: the run fails, with
+ * exit code 1, if a decision time percentile, the allocation or the generation time exceeds the baseline by more than
+ * the allowed regression, or if the iterations per second fall below it by more than that.
+ *
+ * Usage: java ReplayBenchmark -traces game1.trace,game2.trace [options]
+ *   -iterations n      Iteration budget per decision (default 500).
+ *   -seed n            Seed of every search (default 0).
+ *   -stride n          Replay one decision frame out of n (default 1).
+ *   -warmup n          Decisions replayed before measuring, for the JIT (default 20).
+ *   -baseline file     Baseline to compare with.
+ *   -maxRegression r   Allowed regression, as a fraction (default 0.1).
+ *   -saveBaseline file Saves the results as the new baseline.
+ */
+public class ReplayBenchmark {
+
+    private final List<String> traces = new ArrayList<>();
+    private int iterationsBudget = 500;
+    private long seed = 0;
+    private int stride = 1;
+    private int warmup = 20;
+    private String baselinePath = null;
+    private float maxRegression = 0.1f;
+    private String saveBaselinePath = null;
+
+    private final UnitTypeTable unitTypeTable = new UnitTypeTable();
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final Map<String, Results> results = new TreeMap<>(); // By map size.
+
+    public static void main(String[] args) throws Exception {
+        ReplayBenchmark benchmark = new ReplayBenchmark();
+        benchmark.parseArguments(args);
+        benchmark.run();
+        benchmark.printResults();
+        if (benchmark.saveBaselinePath != null)
+            benchmark.saveBaseline();
+        if (benchmark.baselinePath != null && !benchmark.compareWithBaseline())
+            System.exit(1);
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("Missing value for option: " + args[i]);
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-traces": traces.addAll(Arrays.asList(value.split(","))); break;
+                case "-iterations": iterationsBudget = Integer.parseInt(value); break;
+                case "-seed": seed = Long.parseLong(value); break;
+                case "-stride": stride = Integer.parseInt(value); break;
+                case "-warmup": warmup = Integer.parseInt(value); break;
+                case "-baseline": baselinePath = value; break;
+                case "-maxRegression": maxRegression = Float.parseFloat(value); break;
+                case "-saveBaseline": saveBaselinePath = value; break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (traces.isEmpty())
+            throw new IllegalArgumentException("At least one trace (-traces) is required.");
+    }
+
+    /**
+     * Replays the decision frames of all the traces.
+     */
+    private void run() throws Exception {
+        int decisions = 0;
+        for (String trace : traces) {
+            try (GameTraceReader reader = new GameTraceReader(trace, unitTypeTable)) {
+                while (reader.next()) {
+                    GameState gameState = reader.getGameState();
+                    if (!gameState.canExecuteAnyAction(reader.getPlayer()) || decisions++ % stride != 0)
+                        continue;
+                    String mapSize = reader.getMapWidth() + "x" + reader.getMapHeight();
+                    Results mapResults = results.computeIfAbsent(mapSize, size -> new Results());
+                    if (warmup > 0) {
+                        warmup--;
+                        replay(reader.getPlayer(), gameState, new Results());
+                    } else
+                        replay(reader.getPlayer(), gameState, mapResults);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a fresh, seeded search on the frame, and adds its measures to the results.
+     */
+    private void replay(int player, GameState gameState, Results results) throws Exception {
+        UMSBot bot = new UMSBot(unitTypeTable);
+        bot.setTimeBudget(-1);
+        bot.setIterationsBudget(iterationsBudget);
+        bot.player = player;
+        bot.initialize(gameState);
+        ParametricNMCTS search = (ParametricNMCTS) bot.agent;
+        search.setSeed(seed);
+
+        long generationStart = System.nanoTime();
+        new ParametricActionGenerator(gameState.clone(), player, bot.parameters.clone(), null,
+                new SplittableRandom(seed));
+        long generationTime = System.nanoTime() - generationStart;
+
+        Map<Long, Long> allocationStart = getAllocatedBytes();
+        long startTime = System.nanoTime();
+        search.getAction(player, gameState);
+        long decisionTime = System.nanoTime() - startTime;
+        long allocated = 0;
+        for (Map.Entry<Long, Long> entry : getAllocatedBytes().entrySet())
+            allocated += entry.getValue() - allocationStart.getOrDefault(entry.getKey(), 0L);
+
+        results.add(decisionTime, generationTime, search.getTotalRuns(), allocated, search.getTreeSize());
+    }
+
+    /**
+     * Returns the bytes allocated so far by the calling thread and by the common fork-join pool's workers, which filter
+     * the units in parallel on large maps, by thread ID. Empty if the JVM does not measure allocations.
+     */
+    private Map<Long, Long> getAllocatedBytes() {
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean))
+            return new HashMap<>();
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+
+        // The calling thread is read first, the enumeration of the workers allocates.
+        long threadID = Thread.currentThread().getId();
+        long bytes = allocationMXBean.getThreadAllocatedBytes(threadID);
+        Map<Long, Long> allocatedBytes = new HashMap<>();
+        if (bytes >= 0)
+            allocatedBytes.put(threadID, bytes);
+
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if (thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == ForkJoinPool.commonPool()) {
+                bytes = allocationMXBean.getThreadAllocatedBytes(thread.getId());
+                if (bytes >= 0)
+                    allocatedBytes.put(thread.getId(), bytes);
+            }
+        return allocatedBytes;
+    }
+
+    private void printResults() {
+        System.out.println(String.format(Locale.ROOT, "%-9s %9s %9s %9s %9s %12s %12s %9s %9s", "Map", "Decisions",
+                "p50 ms", "p95 ms", "p99 ms", "Iter/s", "KB/decision", "Tree", "Gen ms"));
+        for (Map.Entry<String, Results> entry : results.entrySet()) {
+            Results mapResults = entry.getValue();
+            if (mapResults.size() == 0) continue;
+            System.out.println(String.format(Locale.ROOT, "%-9s %9d %9.2f %9.2f %9.2f %12.1f %12.1f %9.1f %9.3f",
+                    entry.getKey(), mapResults.size(), mapResults.getDecisionTime(0.50),
+                    mapResults.getDecisionTime(0.95), mapResults.getDecisionTime(0.99),
+                    mapResults.getIterationsPerSecond(), mapResults.getAllocatedKB(), mapResults.getTreeSize(),
+                    mapResults.getGenerationTime()));
+        }
+    }
+
+    /**
+     * Compares the results with the baseline. Map sizes missing from either side are skipped.
+     *
+     * @return False if any measure regressed beyond the allowed regression.
+     */
+    private boolean compareWithBaseline() throws IOException {
+        Properties baseline = new Properties();
+        try (InputStream input = new FileInputStream(baselinePath)) {
+            baseline.load(input);
+        }
+
+        boolean passed = true;
+        for (Map.Entry<String, Results> entry : results.entrySet()) {
+            if (entry.getValue().size() == 0) continue;
+            Properties current = entry.getValue().toProperties(entry.getKey());
+            for (String key : current.stringPropertyNames()) {
+                if (!baseline.containsKey(key) || key.endsWith(".decisions") || key.endsWith(".treeSize"))
+                    continue;
+                double baselineValue = Double.parseDouble(baseline.getProperty(key));
+                double currentValue = Double.parseDouble(current.getProperty(key));
+                boolean higherIsBetter = key.endsWith(".iterationsPerSecond");
+                boolean regressed = higherIsBetter ? currentValue < baselineValue * (1 - maxRegression) :
+                        currentValue > baselineValue * (1 + maxRegression);
+                if (regressed) {
+                    passed = false;
+                    System.out.println(String.format(Locale.ROOT, "REGRESSION %s: %.3f, baseline %.3f", key,
+                            currentValue, baselineValue));
+                }
+            }
+        }
+        System.out.println(passed ? "No regression beyond " + (maxRegression * 100) + "%." : "Regressions found.");
+        return passed;
+    }
+
+    private void saveBaseline() throws IOException {
+        Properties baseline = new Properties();
+        for (Map.Entry<String, Results> entry : results.entrySet())
+            if (entry.getValue().size() > 0)
+                baseline.putAll(entry.getValue().toProperties(entry.getKey()));
+        try (OutputStream output = new FileOutputStream(saveBaselinePath)) {
+            baseline.store(output, "ReplayBenchmark baseline, " + iterationsBudget + " iterations, seed " + seed);
+        }
+    }
+
+    /**
+     * The measures of the decisions of one map size.
+     */
+    private static class Results {
+
+        private final List<Long> decisionTimes = new ArrayList<>(); // Nanoseconds.
+        private long totalDecisionTime = 0;
+        private long totalGenerationTime = 0;
+        private long totalIterations = 0;
+        private long totalAllocated = 0; // Bytes.
+        private long totalTreeSize = 0;
+
+        void add(long decisionTime, long generationTime, long iterations, long allocated, int treeSize) {
+            decisionTimes.add(decisionTime);
+            totalDecisionTime += decisionTime;
+            totalGenerationTime += generationTime;
+            totalIterations += iterations;
+            totalAllocated += allocated;
+            totalTreeSize += treeSize;
+        }
+
+        int size() {
+            return decisionTimes.size();
+        }
+
+        /**
+         * Returns a decision time percentile, in milliseconds, by the nearest-rank method.
+         */
+        double getDecisionTime(double percentile) {
+            List<Long> sorted = new ArrayList<>(decisionTimes);
+            sorted.sort(null);
+            int rank = (int) Math.ceil(percentile * sorted.size());
+            return sorted.get(Math.max(0, rank - 1)) / 1e6;
+        }
+
+        double getIterationsPerSecond() {
+            return totalIterations / (totalDecisionTime / 1e9);
+        }
+
+        double getAllocatedKB() {
+            return totalAllocated / 1024.0 / size();
+        }
+
+        double getTreeSize() {
+            return totalTreeSize / (double) size();
+        }
+
+        double getGenerationTime() {
+            return totalGenerationTime / 1e6 / size();
+        }
+
+        Properties toProperties(String mapSize) {
+            Properties properties = new Properties();
+            properties.setProperty(mapSize + ".decisions", Integer.toString(size()));
+            properties.setProperty(mapSize + ".p50Ms", format(getDecisionTime(0.50)));
+            properties.setProperty(mapSize + ".p95Ms", format(getDecisionTime(0.95)));
+            properties.setProperty(mapSize + ".p99Ms", format(getDecisionTime(0.99)));
+            properties.setProperty(mapSize + ".iterationsPerSecond", format(getIterationsPerSecond()));
+            properties.setProperty(mapSize + ".allocatedKBPerDecision", format(getAllocatedKB()));
+            properties.setProperty(mapSize + ".treeSize", format(getTreeSize()));
+            properties.setProperty(mapSize + ".generationMs", format(getGenerationTime()));
+            return properties;
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.ROOT, "%.3f", value);
+        }
+    }
+}
@@ -2,11 +2,13 @@ import ai.core.AI;
 import ai.core.AIWithComputationBudget;
 import ai.core.ParameterSpecification;
 import nmcts.ParametricNMCTS;
+import nmcts.ScriptedOpponentModel;
 import preselection.*;
 import rts.GameState;
 import rts.PhysicalGameState;
 import rts.PlayerAction;
 import rts.units.UnitTypeTable;
+import trace.GameTraceRecorder;
 
 import java.util.List;
 
@@ -19,6 +21,9 @@ public class UMSBot extends AIWithComputationBudget {
 
     int simulationTime = 0, maxDepth = 0; // Uninitialized.
     float ipaPruneRate, epsilon0, epsilonGlobal, epsilonLocal;
+    Long seed = null; // The search's seed, null for an unseeded search.
+    boolean scriptedOpponent = false; // Model the opponent with scripts instead of the preselection.
+    GameTraceRecorder traceRecorder = null; // Records the frames faced, null when not recording.
 
     StateMonitor stateMonitor;
     PreSelectionParameters parameters = new PreSelectionParameters();
@@ -47,6 +52,7 @@ public class UMSBot extends AIWithComputationBudget {
     @Override
     public void reset() {
         this.started = false;
+        parameters.clearCaches();
     }
 
     @Override
@@ -56,11 +62,33 @@ public class UMSBot extends AIWithComputationBudget {
             started = true;
             this.player = player;
         }
-        return agent.getAction(player, gameState);
+        if (traceRecorder == null)
+            return agent.getAction(player, gameState);
+
+        long iterations = agent instanceof ParametricNMCTS ? ((ParametricNMCTS) agent).getTotalRuns() : 0;
+        long startTime = System.nanoTime();
+        PlayerAction playerAction = agent.getAction(player, gameState);
+        long decisionTime = System.nanoTime() - startTime;
+        if (agent instanceof ParametricNMCTS)
+            iterations = ((ParametricNMCTS) agent).getTotalRuns() - iterations;
+        traceRecorder.record(player, gameState, playerAction, decisionTime, iterations);
+        return playerAction;
+    }
+
+    /**
+     * Records every frame faced from now on, the returned actions and the search statistics. The recorder is not
+     * shared with clones, and is closed by its owner. Recording is not part of the recorded decision times, its
+     * overhead is given by the recorder's getRecordingTime().
+     *
+     * @param traceRecorder The recorder, null to stop recording.
+     */
+    public void setTraceRecorder(GameTraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
     }
 
     void initialize(GameState gameState) {
 
+        parameters.clearCaches(); // The parameters outlive games, their caches must not.
         stateMonitor = new StateMonitor(gameState, player);
 //        PhysicalGameState physicalGameState = gameState.getPhysicalGameState();
         int mapWidth = stateMonitor.getMapWidth();
@@ -71,6 +99,9 @@ public class UMSBot extends AIWithComputationBudget {
             parameters.setHarvest(0.0f, PreSelectionParameters.FLOOD_FILL_PF);
             parameters.setDefense(2, 2, 0, 1, DefenseManager.DEFEND_BASE, PreSelectionParameters.A_STAR_PF, 0.0f);
             parameters.setOffense(3, 2, OffenseManager.TARGET_CLOSEST, OffenseManager.FIXED_TARGET_BASE_FIRST, PreSelectionParameters.A_STAR_PF, 0.0f);
+            parameters.setFixedTargetFlowFields(false);
+            parameters.setParallelGenerationThreshold(-1);
+            parameters.setFrontLineOnlySearch(false);
             parameters.setDefenseSwitch(-1, 0, -1, 1.1f, 4, -1); // OldOverpowerFactor:0.1f
             parameters.setBuilding(HarvestManager.BUILD_AT_ISOLATED_LOCATION, 0, 1, 1);
             parameters.setTraining(TrainingManager.TRAIN_AT_ISOLATED_SIDE, 2, 1, 1, 2);
@@ -88,6 +119,9 @@ public class UMSBot extends AIWithComputationBudget {
             parameters.setHarvest(0.0f, PreSelectionParameters.FLOOD_FILL_PF);
             parameters.setDefense(0, 0, 0, 1, DefenseManager.DEFEND_BASE, PreSelectionParameters.A_STAR_PF, 0.05f);
             parameters.setOffense(2, 1, OffenseManager.TARGET_CLOSEST, OffenseManager.NO_FIXED_TARGET, PreSelectionParameters.A_STAR_PF, 0.0f);
+            parameters.setFixedTargetFlowFields(false);
+            parameters.setParallelGenerationThreshold(-1);
+            parameters.setFrontLineOnlySearch(false);
             parameters.setDefenseSwitch(-1, 0, -1, -1f, 4, -1);
             parameters.setBuilding(HarvestManager.BUILD_AT_RANDOM_LOCATION, 10, 1, 2);
             parameters.setTraining(TrainingManager.TRAIN_AT_RANDOM_SIDE, 3, 0, 0, 0);
@@ -108,6 +142,9 @@ public class UMSBot extends AIWithComputationBudget {
             parameters.setHarvest(0.05f, PreSelectionParameters.FLOOD_FILL_PF);
             parameters.setDefense(0, 0, (mapWidth / 2) - 2, 1, DefenseManager.DEFEND_BASE, PreSelectionParameters.A_STAR_PF, 0.05f);
             parameters.setOffense(2, 1, OffenseManager.TARGET_CLOSEST, OffenseManager.FIXED_TARGET_BARRACKS_FIRST, PreSelectionParameters.A_STAR_PF, 0.05f);
+            parameters.setFixedTargetFlowFields(false);
+            parameters.setParallelGenerationThreshold(-1);
+            parameters.setFrontLineOnlySearch(false);
             parameters.setDefenseSwitch(-1, 0, -1, 2f, 4, -1);
             parameters.setBuilding(HarvestManager.BUILD_AT_ISOLATED_LOCATION, 2, 1, 1);
             parameters.setTraining(TrainingManager.TRAIN_AT_ISOLATED_SIDE, 2, 1, 2, 2);
@@ -125,6 +162,9 @@ public class UMSBot extends AIWithComputationBudget {
             parameters.setHarvest(0.05f, PreSelectionParameters.FLOOD_FILL_PF);
             parameters.setDefense(0, 0, (mapWidth / 2) - 2, 1, DefenseManager.DEFEND_BASE, PreSelectionParameters.A_STAR_PF, 0.05f);
             parameters.setOffense(2, 1, OffenseManager.TARGET_CLOSEST, OffenseManager.FIXED_TARGET_ALL_STRUCTURES, PreSelectionParameters.A_STAR_PF, 0.05f);
+            parameters.setFixedTargetFlowFields(false);
+            parameters.setParallelGenerationThreshold(-1);
+            parameters.setFrontLineOnlySearch(false);
             parameters.setDefenseSwitch(-1, 0, -1, 2f, 4, -1);
             parameters.setBuilding(HarvestManager.BUILD_AT_ISOLATED_LOCATION, 2, 1, 1);
             parameters.setTraining(TrainingManager.TRAIN_AT_ISOLATED_SIDE, 2, 1, 2, 2);
@@ -140,9 +180,12 @@ public class UMSBot extends AIWithComputationBudget {
         else if (mapWidth <= 32) { //32x32
 //            parameters.setUnitComposition(1, 1, 2, 0, 2, 0, 0, 0, -1, -1, 2, FunctionalGroupsMonitor.OFFENSE_PRIORITY);
             parameters.setUnitComposition(1, 2, 4, 0, 2, 0, 0, 0, -1, -1, 2, FunctionalGroupsMonitor.OFFENSE_PRIORITY);
-            parameters.setHarvest(0.05f, PreSelectionParameters.A_STAR_PF);
+            parameters.setHarvest(0.05f, PreSelectionParameters.DISTANCE_FIELD_PF);
             parameters.setDefense(0, 0, (mapWidth / 2) - 2, 1, DefenseManager.DEFEND_BASE, PreSelectionParameters.A_STAR_PF, 0.05f);
             parameters.setOffense(2, 1, OffenseManager.TARGET_CLOSEST, OffenseManager.FIXED_TARGET_ALL_STRUCTURES, PreSelectionParameters.A_STAR_PF, 0.05f);
+            parameters.setFixedTargetFlowFields(true);
+            parameters.setParallelGenerationThreshold(-1);
+            parameters.setFrontLineOnlySearch(false);
             parameters.setDefenseSwitch(-1, 0, -1, 2f, 4, -1);
             parameters.setBuilding(HarvestManager.BUILD_AT_ISOLATED_LOCATION, 2, 1, 1);
             parameters.setTraining(TrainingManager.TRAIN_AT_ISOLATED_SIDE, 2, 1, 2, 2);
@@ -157,9 +200,12 @@ public class UMSBot extends AIWithComputationBudget {
         }
         else { //64x64 128x128 ++
             parameters.setUnitComposition(1, 1, 5, 0, 2, 0, 0, 0, -1, 0, 0, FunctionalGroupsMonitor.OFFENSE_PRIORITY);
-            parameters.setHarvest(0.05f, PreSelectionParameters.A_STAR_PF);
+            parameters.setHarvest(0.05f, PreSelectionParameters.DISTANCE_FIELD_PF);
             parameters.setDefense(0, 0, (mapWidth / 2) - 2, 1, DefenseManager.DEFEND_BASE, PreSelectionParameters.A_STAR_PF, 0.05f);
             parameters.setOffense(2, 1, OffenseManager.TARGET_CLOSEST, OffenseManager.FIXED_TARGET_ALL_STRUCTURES, PreSelectionParameters.A_STAR_PF, 0.05f);
+            parameters.setFixedTargetFlowFields(true);
+            parameters.setParallelGenerationThreshold(40);
+            parameters.setFrontLineOnlySearch(true);
             parameters.setDefenseSwitch(-1, 0, -1, 2f, 4, -1);
             parameters.setBuilding(HarvestManager.BUILD_AT_ISOLATED_LOCATION, 2, 1, 1);
             parameters.setTraining(TrainingManager.TRAIN_AT_ISOLATED_SIDE, 2, 1, 2, 2);
@@ -175,6 +221,31 @@ public class UMSBot extends AIWithComputationBudget {
 
         agent = new ParametricNMCTS(unitTypeTable, getTimeBudget(), getIterationsBudget(), simulationTime, maxDepth,
                 epsilon0, epsilonGlobal, epsilonLocal, ipaPruneRate, parameters);
+        if (seed != null)
+            ((ParametricNMCTS) agent).setSeed(seed);
+        if (scriptedOpponent)
+            ((ParametricNMCTS) agent).setOpponentModel(new ScriptedOpponentModel(unitTypeTable));
+    }
+
+    /**
+     * Seeds the search, for reproducible games. Applied once the agent is created, on the first action.
+     *
+     * @param seed The seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        if (agent != null)
+            ((ParametricNMCTS) agent).setSeed(seed);
+    }
+
+    /**
+     * Models the opponent with scripts (see ScriptedOpponentModel) in the search's min nodes, instead of the
+     * preselection. Applied once the agent is created, on the first action.
+     *
+     * @param scriptedOpponent True for the scripted opponent model.
+     */
+    public void setScriptedOpponent(boolean scriptedOpponent) {
+        this.scriptedOpponent = scriptedOpponent;
     }
 
     @Override
@@ -183,10 +254,26 @@ public class UMSBot extends AIWithComputationBudget {
         started = true;
     }
 
+    /**
+     * Returns an independent copy of the bot. The clone holds its own agent, parameters and path finders, so that both
+     * bots can play separate matches concurrently.
+     */
     @Override
     public AI clone() {
         UMSBot cloned = new UMSBot(unitTypeTable, simulationTime, maxDepth);
-        cloned.agent = agent;
+        cloned.setTimeBudget(TIME_BUDGET);
+        cloned.setIterationsBudget(ITERATIONS_BUDGET);
+        cloned.started = started;
+        cloned.player = player;
+        cloned.ipaPruneRate = ipaPruneRate;
+        cloned.epsilon0 = epsilon0;
+        cloned.epsilonGlobal = epsilonGlobal;
+        cloned.epsilonLocal = epsilonLocal;
+        cloned.seed = seed;
+        cloned.scriptedOpponent = scriptedOpponent;
+        cloned.parameters = parameters.clone();
+        if (agent != null)
+            cloned.agent = agent.clone();
         return cloned;
     }
 
@@ -0,0 +1,93 @@
+package nmcts;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Tree-wide unit-action statistics (MAST). Every backpropagation credits the unit-actions of the traversed player
+ * actions, keyed by unit ID and packed unit-action, whatever the node they were chosen in. The local MABs of new nodes
+ * are seeded with these statistics as virtual visits, so that unit-actions known to be good elsewhere in the tree do
+ * not have to be rediscovered in every node. The table is kept across frames and decayed at the start of each search.
+ */
+public class ActionStatisticsTable {
+
+    private static final double MIN_VISITS = 0.01; // Decayed entries below this are dropped.
+
+    private final float maxVirtualVisits;
+    private final Map<Long, Entry> entries = new HashMap<>();
+
+    /**
+     * @param maxVirtualVisits The maximum number of virtual visits given to a unit-action when seeding a local MAB.
+     */
+    public ActionStatisticsTable(float maxVirtualVisits) {
+        this.maxVirtualVisits = maxVirtualVisits;
+    }
+
+    /**
+     * Credits a unit-action with a playout evaluation.
+     *
+     * @param unitID The ID of the unit.
+     * @param packedAction The unit-action, packed.
+     * @param evaluation The evaluation of the playout.
+     */
+    public void update(long unitID, int packedAction, double evaluation) {
+        Long key = getKey(unitID, packedAction);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        entry.visits++;
+        entry.evaluation += evaluation;
+    }
+
+    /**
+     * Returns the number of virtual visits a local MAB should count for the unit-action, 0 if it was never tried.
+     */
+    public double getVirtualVisits(long unitID, int packedAction) {
+        Entry entry = entries.get(getKey(unitID, packedAction));
+        return entry == null ? 0 : Math.min(entry.visits, maxVirtualVisits);
+    }
+
+    /**
+     * Returns the mean evaluation of the unit-action, 0 if it was never tried.
+     */
+    public double getMeanEvaluation(long unitID, int packedAction) {
+        Entry entry = entries.get(getKey(unitID, packedAction));
+        return entry == null ? 0 : entry.evaluation / entry.visits;
+    }
+
+    /**
+     * Scales down all the statistics, older playouts weigh less than recent ones. Mean evaluations are unchanged.
+     *
+     * @param factor The decay factor, between 0 and 1.
+     */
+    public void decay(float factor) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            entry.visits *= factor;
+            entry.evaluation *= factor;
+            if (entry.visits < MIN_VISITS)
+                iterator.remove();
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static Long getKey(long unitID, int packedAction) {
+        return unitID << 32 | (packedAction & 0xFFFFFFFFL);
+    }
+
+    private static final class Entry {
+        double visits = 0;
+        double evaluation = 0;
+    }
+}
@@ -0,0 +1,125 @@
+package nmcts;
+
+import ai.core.AI;
+import ai.core.ParameterSpecification;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.UnitActionAssignment;
+import rts.units.Unit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The playout policy of microRTS' RandomBiasedAI, drawing from a SplittableRandom that can be seeded. Each unit able to
+ * act picks a random unit-action, attacks, harvests and returns being five times more likely than the others. A
+ * unit-action inconsistent with the resources already used is replaced by a wait.
+ */
+public class BiasedPlayoutPolicy extends AI {
+
+    private static final double BIASED_WEIGHT = 5;
+    private static final double REGULAR_WEIGHT = 1;
+
+    private SplittableRandom random;
+    private Long seed = null; // The seed of the current generator, null if unknown.
+
+    public BiasedPlayoutPolicy() {
+        this(new SplittableRandom());
+    }
+
+    /**
+     * @param seed The seed of the playouts' random generator.
+     */
+    public BiasedPlayoutPolicy(long seed) {
+        this(new SplittableRandom(seed));
+        this.seed = seed;
+    }
+
+    /**
+     * @param random The random generator of the playouts.
+     */
+    public BiasedPlayoutPolicy(SplittableRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * Replaces the random generator, the search hands a split of its own generator at the start of each search.
+     */
+    public void setRandom(SplittableRandom random) {
+        this.random = random;
+        this.seed = null;
+    }
+
+    @Override
+    public PlayerAction getAction(int player, GameState gameState) {
+        PlayerAction playerAction = new PlayerAction();
+        if (!gameState.canExecuteAnyAction(player))
+            return playerAction;
+
+        PhysicalGameState physicalGameState = gameState.getPhysicalGameState();
+        // Resources reserved by the unit-actions in progress.
+        for (UnitActionAssignment assignment : gameState.getUnitActions().values())
+            playerAction.getResourceUsage().merge(assignment.action.resourceUsage(assignment.unit, physicalGameState));
+
+        for (Unit unit : new ArrayList<>(physicalGameState.getUnits())) {
+            if (unit.getPlayer() != player || gameState.getActionAssignment(unit) != null)
+                continue;
+
+            List<UnitAction> unitActions = unit.getUnitActions(gameState);
+            UnitAction waitAction = null;
+            double[] weights = new double[unitActions.size()];
+            double total = 0;
+            for (int i = 0; i < weights.length; i++) {
+                int type = unitActions.get(i).getType();
+                if (type == UnitAction.TYPE_NONE)
+                    waitAction = unitActions.get(i);
+                weights[i] = type == UnitAction.TYPE_ATTACK_LOCATION || type == UnitAction.TYPE_HARVEST ||
+                        type == UnitAction.TYPE_RETURN ? BIASED_WEIGHT : REGULAR_WEIGHT;
+                total += weights[i];
+            }
+
+            UnitAction unitAction = unitActions.get(sample(weights, total));
+            ResourceUsage resourceUsage = unitAction.resourceUsage(unit, physicalGameState);
+            if (resourceUsage.consistentWith(playerAction.getResourceUsage(), gameState)) {
+                playerAction.getResourceUsage().merge(resourceUsage);
+                playerAction.addUnitAction(unit, unitAction);
+            } else
+                playerAction.addUnitAction(unit, waitAction);
+        }
+        return playerAction;
+    }
+
+    private int sample(double[] weights, double total) {
+        double sample = random.nextDouble() * total, accumulated = 0;
+        for (int i = 0; i < weights.length - 1; i++) {
+            accumulated += weights[i];
+            if (accumulated >= sample)
+                return i;
+        }
+        return weights.length - 1;
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public AI clone() {
+        // Cloned by seed, splitting the generator would change the stream of this instance.
+        return seed != null ? new BiasedPlayoutPolicy(seed) : new BiasedPlayoutPolicy();
+    }
+
+    @Override
+    public List<ParameterSpecification> getParameters() {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,79 @@
+package nmcts;
+
+import rts.GameState;
+import rts.UnitActionAssignment;
+
+import java.lang.reflect.Field;
+
+/**
+ * Advances game states over durative actions. A game cycle only executes the unit-actions completing at that cycle,
+ * the cycles in between are pure time increments. Instead of stepping through them one by one, the game time is set
+ * right before the earliest completion and a single cycle is run. GameState does not expose a time setter, the time
+ * field is set by reflection. If it cannot be, the game state is stepped one cycle at a time, as before.
+ */
+public final class FastForward {
+
+    private static final Field TIME_FIELD = getTimeField();
+
+    private FastForward() {
+    }
+
+    private static Field getTimeField() {
+        try {
+            Field timeField = GameState.class.getDeclaredField("time");
+            timeField.setAccessible(true);
+            return timeField;
+        } catch (Exception exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Advances the game state until a unit of either player can act, or the game is over.
+     *
+     * @param gameState The game state to advance.
+     * @param player One of the players.
+     */
+    public static void toNextDecision(GameState gameState, int player) {
+        while (gameState.winner() == -1 &&
+               !gameState.gameover() &&
+               !gameState.canExecuteAnyAction(player) &&
+               !gameState.canExecuteAnyAction(1 - player)) {
+            int completionTime = getEarliestCompletionTime(gameState);
+            if (completionTime > gameState.getTime() + 1)
+                setTime(gameState, completionTime - 1);
+            gameState.cycle();
+        }
+    }
+
+    /**
+     * Returns the earliest time at which an assigned unit-action completes, -1 if no unit-action is assigned.
+     */
+    public static int getEarliestCompletionTime(GameState gameState) {
+        int earliest = -1;
+        for (UnitActionAssignment assignment : gameState.getUnitActions().values()) {
+            int completionTime = assignment.time + assignment.action.ETA(assignment.unit);
+            if (earliest == -1 || completionTime < earliest)
+                earliest = completionTime;
+        }
+        return earliest;
+    }
+
+    /**
+     * Sets the game time, without running the cycles in between. Does nothing if the time field is not accessible.
+     *
+     * @param gameState The game state.
+     * @param time The new game time.
+     * @return False if the time could not be set.
+     */
+    public static boolean setTime(GameState gameState, int time) {
+        if (TIME_FIELD == null)
+            return false;
+        try {
+            TIME_FIELD.setInt(gameState, time);
+            return true;
+        } catch (IllegalAccessException ignored) {
+            return false; // Stepped one cycle at a time.
+        }
+    }
+}
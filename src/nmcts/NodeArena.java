@@ -0,0 +1,175 @@
+package nmcts;
+
+import java.util.Arrays;
+
+/**
+ * Holds the statistics and links of all the nodes of a search tree in growable primitive arrays, indexed by node ID.
+ * Children are linked through first-child/next-sibling IDs, in their order of creation. The unit-action statistics of
+ * every node are stored in two shared slabs, each unit owning a range of consecutive slots. The arena is reset at the
+ * start of every search, keeping its arrays for the next tree instead of leaving thousands of small objects to the
+ * garbage collector.
+ */
+public final class NodeArena {
+
+    static final int NONE = -1; // No node.
+
+    private static final int INITIAL_NODES = 1024;
+    private static final int INITIAL_SLOTS = 16384;
+
+    // Nodes **********************************************************************************************************
+    private int nodeCount = 0;
+    private ParametricNMCTSNode[] nodes = new ParametricNMCTSNode[INITIAL_NODES];
+    private int[] visits = new int[INITIAL_NODES];
+    private double[] evaluations = new double[INITIAL_NODES]; // Accumulated evaluations.
+    private int[] parents = new int[INITIAL_NODES];
+    private int[] firstChildren = new int[INITIAL_NODES];
+    private int[] lastChildren = new int[INITIAL_NODES];
+    private int[] nextSiblings = new int[INITIAL_NODES];
+    private int[] childCounts = new int[INITIAL_NODES];
+
+    // Unit-action statistics slabs ***********************************************************************************
+    private int slotCount = 0;
+    private int[] actionVisits = new int[INITIAL_SLOTS];
+    private double[] actionEvaluations = new double[INITIAL_SLOTS];
+
+    private int refusedWidenings = 0; // Explorations turned into exploitations by progressive widening.
+
+    /**
+     * Drops all the nodes. The arrays are kept, and overwritten by the next tree.
+     */
+    void reset() {
+        Arrays.fill(nodes, 0, nodeCount, null); // Releases the game states.
+        nodeCount = 0;
+        slotCount = 0;
+        refusedWidenings = 0;
+    }
+
+    /**
+     * Adds a node, as the last child of its parent.
+     *
+     * @param node The node.
+     * @param parent The parent's ID, NONE for a root.
+     * @return The ID of the node.
+     */
+    int addNode(ParametricNMCTSNode node, int parent) {
+        if (nodeCount == nodes.length)
+            growNodes();
+
+        int id = nodeCount++;
+        nodes[id] = node;
+        visits[id] = 0;
+        evaluations[id] = 0;
+        parents[id] = parent;
+        firstChildren[id] = NONE;
+        lastChildren[id] = NONE;
+        nextSiblings[id] = NONE;
+        childCounts[id] = 0;
+
+        if (parent != NONE) {
+            if (firstChildren[parent] == NONE) firstChildren[parent] = id;
+            else nextSiblings[lastChildren[parent]] = id;
+            lastChildren[parent] = id;
+            childCounts[parent]++;
+        }
+        return id;
+    }
+
+    /**
+     * Reserves zeroed unit-action statistics slots.
+     *
+     * @param count The number of slots.
+     * @return The index of the first slot.
+     */
+    int addSlots(int count) {
+        if (slotCount + count > actionVisits.length) {
+            int capacity = Math.max(slotCount + count, actionVisits.length * 2);
+            actionVisits = Arrays.copyOf(actionVisits, capacity);
+            actionEvaluations = Arrays.copyOf(actionEvaluations, capacity);
+        }
+        int first = slotCount;
+        Arrays.fill(actionVisits, first, first + count, 0);
+        Arrays.fill(actionEvaluations, first, first + count, 0);
+        slotCount += count;
+        return first;
+    }
+
+    private void growNodes() {
+        int capacity = nodes.length * 2;
+        nodes = Arrays.copyOf(nodes, capacity);
+        visits = Arrays.copyOf(visits, capacity);
+        evaluations = Arrays.copyOf(evaluations, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        lastChildren = Arrays.copyOf(lastChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        childCounts = Arrays.copyOf(childCounts, capacity);
+    }
+
+    void addVisit(int id, double evaluation) {
+        visits[id]++;
+        evaluations[id] += evaluation;
+    }
+
+    void addActionVisit(int slot, double evaluation) {
+        actionVisits[slot]++;
+        actionEvaluations[slot] += evaluation;
+    }
+
+    ParametricNMCTSNode getNode(int id) {
+        return nodes[id];
+    }
+
+    int getVisits(int id) {
+        return visits[id];
+    }
+
+    double getEvaluation(int id) {
+        return evaluations[id];
+    }
+
+    int getParent(int id) {
+        return parents[id];
+    }
+
+    int getFirstChild(int id) {
+        return firstChildren[id];
+    }
+
+    int getNextSibling(int id) {
+        return nextSiblings[id];
+    }
+
+    int getChildCount(int id) {
+        return childCounts[id];
+    }
+
+    /**
+     * Returns the ID of the child at the given position, in order of creation.
+     */
+    int getChild(int id, int index) {
+        int child = firstChildren[id];
+        for (int i = 0; i < index; i++)
+            child = nextSiblings[child];
+        return child;
+    }
+
+    int getActionVisits(int slot) {
+        return actionVisits[slot];
+    }
+
+    double getActionEvaluation(int slot) {
+        return actionEvaluations[slot];
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    void countRefusedWidening() {
+        refusedWidenings++;
+    }
+
+    int getRefusedWidenings() {
+        return refusedWidenings;
+    }
+}
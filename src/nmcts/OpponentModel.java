@@ -0,0 +1,33 @@
+package nmcts;
+
+import preselection.PreSelectionParameters;
+import rts.GameState;
+import rts.UnitAction;
+import rts.units.Unit;
+import util.Pair;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Generates the candidate unit-actions of the opponent's units, in the min nodes of the search tree.
+ */
+public interface OpponentModel {
+
+    /**
+     * Appends each opponent unit able to act and its candidate unit-actions, the idle action last, to the choices, and
+     * their priors to the priors list (a null entry when the unit has none).
+     *
+     * @param gameState The game state of the min node.
+     * @param opponent The opponent's ID.
+     * @param parameters The preselection parameters of the search.
+     * @param random The source of the model's random choices.
+     * @param choices The list receiving the units and their unit-actions.
+     * @param priors The list receiving the priors, one entry per unit.
+     * @throws Exception
+     */
+    void generateChoices(GameState gameState, int opponent, PreSelectionParameters parameters, SplittableRandom random,
+                         List<Pair<Unit, List<UnitAction>>> choices, List<float[]> priors) throws Exception;
+
+    OpponentModel clone();
+}
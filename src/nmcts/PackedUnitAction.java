@@ -0,0 +1,115 @@
+package nmcts;
+
+import rts.UnitAction;
+import rts.units.UnitTypeTable;
+
+import java.util.List;
+
+/**
+ * Packs unit-actions into single ints, for the unit-action tables of the search tree. Packed actions are compared and
+ * hashed as plain ints, and are decoded into UnitAction objects only when issued to the game.
+ *
+ * Layout, from the lowest bit:
+ *   bits 0-2    action type.
+ *   TYPE_NONE:                        bits 3-31 wait duration.
+ *   TYPE_MOVE, TYPE_HARVEST, TYPE_RETURN: bits 3-5 direction + 1.
+ *   TYPE_PRODUCE:                     bits 3-5 direction + 1, bits 6-13 produced unit type ID.
+ *   TYPE_ATTACK_LOCATION:             bits 3-16 target X, bits 17-30 target Y.
+ */
+public final class PackedUnitAction {
+
+    private static final int TYPE_BITS = 3;
+    private static final int TYPE_MASK = (1 << TYPE_BITS) - 1;
+    private static final int DIRECTION_MASK = 0x7;
+    private static final int UNIT_TYPE_SHIFT = TYPE_BITS + 3;
+    private static final int UNIT_TYPE_MASK = 0xFF;
+    private static final int COORDINATE_BITS = 14;
+    private static final int COORDINATE_MASK = (1 << COORDINATE_BITS) - 1;
+    private static final int MAX_WAIT_DURATION = (1 << (32 - TYPE_BITS)) - 1;
+
+    private PackedUnitAction() {
+    }
+
+    /**
+     * Packs a unit-action.
+     *
+     * @param unitAction The unit-action to pack.
+     * @return The packed unit-action.
+     */
+    public static int pack(UnitAction unitAction) {
+        int type = unitAction.getType();
+        switch (type) {
+            case UnitAction.TYPE_NONE:
+                if (unitAction.getDirection() < 0 || unitAction.getDirection() > MAX_WAIT_DURATION)
+                    throw new IllegalArgumentException("Wait duration out of the packable range: " + unitAction);
+                return type | unitAction.getDirection() << TYPE_BITS;
+            case UnitAction.TYPE_MOVE:
+            case UnitAction.TYPE_HARVEST:
+            case UnitAction.TYPE_RETURN:
+                return type | (unitAction.getDirection() + 1) << TYPE_BITS;
+            case UnitAction.TYPE_PRODUCE:
+                if (unitAction.getUnitType().ID > UNIT_TYPE_MASK)
+                    throw new IllegalArgumentException("Unit type ID out of the packable range: " + unitAction);
+                return type | (unitAction.getDirection() + 1) << TYPE_BITS |
+                        unitAction.getUnitType().ID << UNIT_TYPE_SHIFT;
+            case UnitAction.TYPE_ATTACK_LOCATION:
+                if (unitAction.getLocationX() > COORDINATE_MASK || unitAction.getLocationY() > COORDINATE_MASK)
+                    throw new IllegalArgumentException("Attack location out of the packable range: " + unitAction);
+                return type | unitAction.getLocationX() << TYPE_BITS |
+                        unitAction.getLocationY() << (TYPE_BITS + COORDINATE_BITS);
+        }
+        throw new IllegalArgumentException("Unknown unit action type: " + unitAction);
+    }
+
+    /**
+     * Packs a list of unit-actions, keeping their order.
+     */
+    public static int[] pack(List<UnitAction> unitActions) {
+        int[] packedActions = new int[unitActions.size()];
+        int index = 0;
+        for (UnitAction unitAction : unitActions)
+            packedActions[index++] = pack(unitAction);
+        return packedActions;
+    }
+
+    /**
+     * Decodes a packed unit-action.
+     *
+     * @param packedAction The packed unit-action.
+     * @param unitTypeTable The unit type table of the game, used to decode produce actions.
+     * @return A new UnitAction equal to the packed one.
+     */
+    public static UnitAction unpack(int packedAction, UnitTypeTable unitTypeTable) {
+        int type = getType(packedAction);
+        switch (type) {
+            case UnitAction.TYPE_NONE:
+                return new UnitAction(type, getWaitDuration(packedAction));
+            case UnitAction.TYPE_PRODUCE:
+                return new UnitAction(type, getDirection(packedAction),
+                        unitTypeTable.getUnitType((packedAction >>> UNIT_TYPE_SHIFT) & UNIT_TYPE_MASK));
+            case UnitAction.TYPE_ATTACK_LOCATION:
+                return new UnitAction(type, (packedAction >>> TYPE_BITS) & COORDINATE_MASK,
+                        (packedAction >>> (TYPE_BITS + COORDINATE_BITS)) & COORDINATE_MASK);
+            default:
+                return new UnitAction(type, getDirection(packedAction));
+        }
+    }
+
+    public static int getType(int packedAction) {
+        return packedAction & TYPE_MASK;
+    }
+
+    /**
+     * Returns the direction of a move, harvest, return or produce action.
+     */
+    public static int getDirection(int packedAction) {
+        return ((packedAction >>> TYPE_BITS) & DIRECTION_MASK) - 1;
+    }
+
+    /**
+     * Returns the duration of a wait (TYPE_NONE) action.
+     */
+    public static int getWaitDuration(int packedAction) {
+        return packedAction >>> TYPE_BITS;
+    }
+}
@@ -1,6 +1,5 @@
 package nmcts;
 
-import ai.RandomBiasedAI;
 import ai.core.AI;
 import ai.core.AIWithComputationBudget;
 import ai.core.InterruptibleAI;
@@ -13,9 +12,12 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import preselection.CombatEstimator;
 import preselection.PreSelectionParameters;
+import preselection.UnitRoleRegistry;
 import rts.GameState;
 import rts.PlayerAction;
+import rts.units.Unit;
 import rts.units.UnitTypeTable;
 import scala.util.parsing.combinator.testing.Str;
 
@@ -27,6 +29,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SplittableRandom;
 
 public class ParametricNMCTS extends AIWithComputationBudget implements InterruptibleAI {
 
@@ -34,9 +37,13 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
 
     private GameState initialGameState;
     private EvaluationFunction evaluationFunction = new SimpleSqrtEvaluationFunction3();
-    private AI playoutPolicy = new RandomBiasedAI();
+    private AI playoutPolicy = new BiasedPlayoutPolicy();
     private ParametricNMCTSNode tree;
     private PreSelectionParameters parameters;
+    private UnitRoleRegistry roleRegistry = new UnitRoleRegistry(); // The player's unit roles, kept across frames.
+    private NodeArena arena = new NodeArena(); // The tree's node statistics, reused from one frame to the next.
+    private ActionStatisticsTable actionStatistics; // Tree-wide unit-action statistics, kept across frames.
+    private OpponentModel opponentModel = new PreselectionOpponentModel(); // The opponent's unit-actions in min nodes.
 
     private int player;
     private int simulationTime = 1024;
@@ -49,16 +56,38 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
     private float epsilonGlobal = 0.0f;
     private float epsilonLocal = 0.25f;
 
+    // Progressive widening: a node visited N times may hold up to k * N^alpha children. Disabled when k is -1.
+    private float wideningConstant = -1;
+    private float wideningExponent = 0.5f;
+
+    // Tree-wide unit-action statistics (MAST), seeding the local MABs with up to this many virtual visits per unit
+    // action. Disabled when 0. The statistics are decayed by mastDecay at the start of every search.
+    private float mastVirtualVisits = 0;
+    private float mastDecay = 0.5f;
+
+    // Playout cutoff: when mobile units of both players stand within this square range of each other, the fight is
+    // forecast by a CombatEstimator and the leaf is evaluated right away, instead of playing it out. Disabled when -1.
+    private int combatCutoffRange = -1;
+
     private int globalStrategy = ParametricNMCTSNode.EPSILON_GREEDY;
+    private float ucbConstant = 0.05f; // UCB1 exploration constant.
+    // The source of all the search's random choices, owned by this instance. Split into one generator per search, then
+    // per node, per unit and for the playouts.
+    private SplittableRandom random = new SplittableRandom();
+    private Long seed = null; // The seed of the random choices, null for an unseeded search.
     private boolean exploreNonSampledActions = true;
     private double evaluationBound;
 
     // Stats
     private int treeDepth = 0;
+    private int maxTreeSize = 0;
     private long totalRuns = 0;
     private long totalCyclesExecuted = 0;
     private long totalActionsIssued = 0;
     private long totalTime = 0;
+    private long totalRefusedWidenings = 0;
+    private long totalRootChildren = 0;
+    private long totalCombatCutoffs = 0;
 
     // Inactivity Filtering
     private float ipaAllowProbability = 0.0f;
@@ -74,7 +103,7 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
      */
     public ParametricNMCTS(UnitTypeTable unitTypeTable) {
         this(100, -1, 100, 15, 0.4f, 0.0f, 0.3f,
-              ParametricNMCTSNode.EPSILON_GREEDY, new RandomBiasedAI(), new SimpleSqrtEvaluationFunction3(), true,
+              ParametricNMCTSNode.EPSILON_GREEDY, new BiasedPlayoutPolicy(), new SimpleSqrtEvaluationFunction3(), true,
                 0.0f, new PreSelectionParameters());
     }
 
@@ -102,7 +131,7 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
                            PreSelectionParameters parameters) {
 
         this(timeBudget, iterationBudget, simulationTime, maxDepth, epsilon0, epsilonGlobal, epsilonLocal,
-             ParametricNMCTSNode.EPSILON_GREEDY, new RandomBiasedAI(), new SimpleSqrtEvaluationFunction3(),
+             ParametricNMCTSNode.EPSILON_GREEDY, new BiasedPlayoutPolicy(), new SimpleSqrtEvaluationFunction3(),
                 true, ipaAllowProbability, parameters);
     }
 
@@ -159,13 +188,27 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
         currentIteration = 0;
         initialGameState = gameState;
         // Create the search tree, and increase the currentIteration counter afterwards.
-        tree = new ParametricNMCTSNode(player, gameState, null, currentIteration++, exploreNonSampledActions, parameters);
+        arena.reset();
+        if (mastVirtualVisits > 0) {
+            if (actionStatistics == null)
+                actionStatistics = new ActionStatisticsTable(mastVirtualVisits);
+            else
+                actionStatistics.decay(mastDecay);
+        }
+        SplittableRandom searchRandom = random.split();
+        if (playoutPolicy instanceof BiasedPlayoutPolicy)
+            ((BiasedPlayoutPolicy) playoutPolicy).setRandom(searchRandom.split());
+        tree = new ParametricNMCTSNode(player, gameState, null, currentIteration++, exploreNonSampledActions, parameters,
+                roleRegistry, arena, actionStatistics, opponentModel, searchRandom);
         evaluationBound = evaluationFunction.upperBound(gameState);
 
         if (tree.getActionGenerator() == null)
             maxActions = 0;
-        else
+        else {
             maxActions = Math.max(tree.getActionGenerator().getSize(), maxActions);
+            // Keep the roles decided at the root (new units, dead units, stance switches) for the next frames.
+            roleRegistry.update(tree.getActionGenerator().getFunctionalGroupsMonitor());
+        }
     }
 
     @Override
@@ -188,12 +231,16 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
         // Stats
         totalTime += (endTime - startTime);
         totalCyclesExecuted++;
+        maxTreeSize = Math.max(arena.getNodeCount(), maxTreeSize);
+        totalRefusedWidenings += arena.getRefusedWidenings();
+        totalRootChildren += tree.getChildCount();
     }
 
     private boolean monteCarloRun(int player) throws Exception {
         // (1) Selection and Expansion
         ParametricNMCTSNode selected = tree.selectLeaf(player, epsilon0, epsilonGlobal, epsilonLocal,
-                globalStrategy, maxDepth, currentIteration++, evaluationBound, ipaAllowProbability);
+                globalStrategy, ucbConstant, maxDepth, currentIteration++, evaluationBound, ipaAllowProbability,
+                wideningConstant, wideningExponent);
 
         if (selected.getDepth() > treeDepth)
             treeDepth = selected.getDepth();
@@ -201,9 +248,17 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
         if (selected != null) {
             // (2) Simulation and evaluation
             GameState simGameState = selected.getGameState().clone();
-            simulate(simGameState, simGameState.getTime() + simulationTime);
+            int time;
+            CombatEstimator combat = combatCutoffRange >= 0 ? estimateCombat(simGameState) : null;
+            if (combat != null && combat.getWinner() != CombatEstimator.UNDECIDED) {
+                combat.applyTo(simGameState);
+                time = simGameState.getTime() + combat.getDuration() - initialGameState.getTime();
+                totalCombatCutoffs++;
+            } else {
+                simulate(simGameState, simGameState.getTime() + simulationTime);
+                time = simGameState.getTime() - initialGameState.getTime();
+            }
 
-            int time = simGameState.getTime() - initialGameState.getTime();
             double evaluation = evaluationFunction.evaluate(player, 1 - player, simGameState);
             evaluation *= Math.pow(0.99, time / 10.0);
 
@@ -222,7 +277,7 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
         int bestActionIndex = getMostVisitedActionIndex();
         if (bestActionIndex == -1)
             return new PlayerAction();
-        return tree.getActions().get(bestActionIndex);
+        return tree.getPlayerAction(bestActionIndex);
     }
 
     private int getMostVisitedActionIndex() {
@@ -231,12 +286,13 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
         ParametricNMCTSNode mostVisitedChild = null; // The most visited child
         int mostVisitedChildIndex = -1; // The most visited child index
 
-        if (tree.getChildren() == null)
+        List<ParametricNMCTSNode> children = tree.getChildren();
+        if (children == null)
             return -1;
 
         // Find the most visited child.
-        for (int index = 0; index < tree.getChildren().size(); index++) {
-            ParametricNMCTSNode child = tree.getChildren().get(index);
+        for (int index = 0; index < children.size(); index++) {
+            ParametricNMCTSNode child = children.get(index);
             if (mostVisitedChild == null || child.getVisitCount() > mostVisitedChild.getVisitCount()) {
                 mostVisitedChild = child;
                 mostVisitedChildIndex = index;
@@ -252,12 +308,13 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
         ParametricNMCTSNode highestEvaluatedChild = null; // The highest evaluated child.
         int highestEvaluatedChildIndex = -1; // The highest evaluated child index.
 
-        if (tree.getChildren() == null)
+        List<ParametricNMCTSNode> children = tree.getChildren();
+        if (children == null)
             return -1;
 
         // Find the highest evaluated child.
-        for (int index = 0; index < tree.getChildren().size(); index++) {
-            ParametricNMCTSNode child = tree.getChildren().get(index);
+        for (int index = 0; index < children.size(); index++) {
+            ParametricNMCTSNode child = children.get(index);
             if (highestEvaluatedChild == null ||
                (child.getAccumulatedEvaluation() / (double) child.getVisitCount()) >
                        (highestEvaluatedChild.getAccumulatedEvaluation() / (double) highestEvaluatedChild.getVisitCount())) {
@@ -269,6 +326,27 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
         return highestEvaluatedChildIndex;
     }
 
+    /**
+     * Forecasts the fight between the mobile units of both players standing within the cutoff range of each other.
+     *
+     * @param gameState The game state.
+     * @return The forecast, null if no units are engaged.
+     */
+    private CombatEstimator estimateCombat(GameState gameState) {
+        List<Unit> playerUnits = new ArrayList<>(), opponentUnits = new ArrayList<>();
+        for (Unit unit : gameState.getPhysicalGameState().getUnits())
+            if (unit.getType().canMove) {
+                if (unit.getPlayer() == player) playerUnits.add(unit);
+                else if (unit.getPlayer() == 1 - player) opponentUnits.add(unit);
+            }
+
+        List<Unit> engagedPlayerUnits = CombatEstimator.getEngagedUnits(playerUnits, opponentUnits, combatCutoffRange);
+        if (engagedPlayerUnits.isEmpty())
+            return null;
+        return new CombatEstimator(engagedPlayerUnits,
+                CombatEstimator.getEngagedUnits(opponentUnits, playerUnits, combatCutoffRange));
+    }
+
     private void simulate(GameState gameState, int simTime) throws Exception {
         boolean gameOver = false;
 
@@ -287,24 +365,41 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
         tree = null;
         initialGameState = null;
         currentIteration = 0;
+        roleRegistry.clear();
+        parameters.clearCaches();
+        arena.reset();
+        actionStatistics = null;
         // Reset stats.
         totalRuns = 0;
         totalCyclesExecuted = 0;
         totalActionsIssued = 0;
         totalTime = 0;
         treeDepth = 0;
+        maxTreeSize = 0;
+        totalRefusedWidenings = 0;
+        totalRootChildren = 0;
+        totalCombatCutoffs = 0;
     }
 
     public void resetSearch() {
         tree = null;
         initialGameState = null;
+        arena.reset();
     }
 
     @Override
     public AI clone() {
-        return new ParametricNMCTS(TIME_BUDGET, ITERATIONS_BUDGET, simulationTime, maxDepth,
-                         epsilon0, epsilonGlobal, epsilonLocal, globalStrategy, playoutPolicy,
+        ParametricNMCTS clone = new ParametricNMCTS(TIME_BUDGET, ITERATIONS_BUDGET, simulationTime, maxDepth,
+                         epsilon0, epsilonGlobal, epsilonLocal, globalStrategy, playoutPolicy.clone(),
                          evaluationFunction, exploreNonSampledActions, ipaAllowProbability, parameters.clone());
+        clone.setProgressiveWidening(wideningConstant, wideningExponent);
+        clone.setActionStatistics(mastVirtualVisits, mastDecay);
+        clone.setCombatCutoffRange(combatCutoffRange);
+        clone.setOpponentModel(opponentModel.clone());
+        clone.setUcbConstant(ucbConstant);
+        if (seed != null)
+            clone.setSeed(seed);
+        return clone;
     }
 
     @Override
@@ -321,7 +416,16 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
                ", Runs per cycle: " + (totalRuns / (float) totalCyclesExecuted) +
                ", Average time per cycle: " + (totalTime / (float) totalCyclesExecuted) +
                ", Max branching factor: " + maxActions +
-               ", Max Tree Depth: " + treeDepth;
+               ", Max Tree Depth: " + treeDepth +
+               ", Max Tree Size: " + maxTreeSize +
+               ", Root children per cycle: " + (totalRootChildren / (float) totalCyclesExecuted) +
+               ", Refused widenings per cycle: " + (totalRefusedWidenings / (float) totalCyclesExecuted) +
+               ", MAST entries: " + (actionStatistics == null ? 0 : actionStatistics.size()) +
+               ", Combat cutoffs: " + totalCombatCutoffs + "/" + totalRuns +
+               ", Path cache hits: " + parameters.pathCacheHits() + "/" +
+                    (parameters.pathCacheHits() + parameters.pathCacheMisses()) +
+               ", Filter cache hits: " + parameters.filterCacheHits() + "/" +
+                    (parameters.filterCacheHits() + parameters.filterCacheMisses());
     }
 
     @Override
@@ -347,7 +451,10 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
     public String printPreselectionParameters() {
         String output = parameters.toString();
         output += "\n[MCTS]:   epsilon0:" + epsilon0 + " epsilonGlobal:" + epsilonGlobal +
-                " epsilonLocal:" + epsilonLocal + " IPAAllowProb:" + ipaAllowProbability;
+                " epsilonLocal:" + epsilonLocal + " IPAAllowProb:" + ipaAllowProbability +
+                " wideningConstant:" + wideningConstant + " wideningExponent:" + wideningExponent +
+                " mastVirtualVisits:" + mastVirtualVisits + " mastDecay:" + mastDecay +
+                " combatCutoffRange:" + combatCutoffRange + " opponentModel:" + opponentModel;
         return output;
     }
 
@@ -356,6 +463,12 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
                "\"epsilonLocal\":" + epsilonLocal + ", " +
                "\"epsilonGlobal\":" + epsilonGlobal + ", " +
                "\"ipaAllowProbability\":" + ipaAllowProbability + ", " +
+               "\"wideningConstant\":" + wideningConstant + ", " +
+               "\"wideningExponent\":" + wideningExponent + ", " +
+               "\"mastVirtualVisits\":" + mastVirtualVisits + ", " +
+               "\"mastDecay\":" + mastDecay + ", " +
+               "\"combatCutoffRange\":" + combatCutoffRange + ", " +
+               "\"scriptedOpponent\":" + (opponentModel instanceof ScriptedOpponentModel) + ", " +
                "\"simulationTime\":" + simulationTime + ", " +
                "\"maxDepth\":" + maxDepth + ", " +
                "\"parameters\":" + parameters.toJSONStr() + "}";
@@ -375,6 +488,18 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
         this.epsilonGlobal = (float) node.get("epsilonGlobal").asDouble();
         this.epsilonLocal = (float) node.get("epsilonLocal").asDouble();
         this.ipaAllowProbability = (float) node.get("ipaAllowProbability").asDouble();
+        if (node.has("wideningConstant"))
+            this.wideningConstant = (float) node.get("wideningConstant").asDouble();
+        if (node.has("wideningExponent"))
+            this.wideningExponent = (float) node.get("wideningExponent").asDouble();
+        if (node.has("mastVirtualVisits"))
+            this.mastVirtualVisits = (float) node.get("mastVirtualVisits").asDouble();
+        if (node.has("mastDecay"))
+            this.mastDecay = (float) node.get("mastDecay").asDouble();
+        if (node.has("combatCutoffRange"))
+            this.combatCutoffRange = node.get("combatCutoffRange").asInt();
+        if (node.has("scriptedOpponent") && node.get("scriptedOpponent").asBoolean())
+            this.opponentModel = new ScriptedOpponentModel(unitTypeTable);
         //this.simulationTime = node.get("simulationTime").asInt();
         //this.maxDepth = node.get("maxDepth").asInt();
         this.parameters = PreSelectionParameters.fromJSON(node.get("parameters").toString());
@@ -428,6 +553,105 @@ public class ParametricNMCTS extends AIWithComputationBudget implements Interrup
         this.epsilonLocal = epsilonLocal;
     }
 
+    /**
+     * Bounds the number of children of a node visited N times to max(1, k * N^alpha).
+     *
+     * @param wideningConstant The constant k, -1 to disable progressive widening.
+     * @param wideningExponent The exponent alpha.
+     */
+    public void setProgressiveWidening(float wideningConstant, float wideningExponent) {
+        this.wideningConstant = wideningConstant;
+        this.wideningExponent = wideningExponent;
+    }
+
+    public float getWideningConstant() {
+        return wideningConstant;
+    }
+
+    public float getWideningExponent() {
+        return wideningExponent;
+    }
+
+    /**
+     * Seeds the local MABs with tree-wide unit-action statistics, kept across frames.
+     *
+     * @param mastVirtualVisits The maximum number of virtual visits given to a unit action, 0 to disable.
+     * @param mastDecay The factor applied to the statistics at the start of every search.
+     */
+    public void setActionStatistics(float mastVirtualVisits, float mastDecay) {
+        this.mastVirtualVisits = mastVirtualVisits;
+        this.mastDecay = mastDecay;
+        actionStatistics = null;
+    }
+
+    public float getMastVirtualVisits() {
+        return mastVirtualVisits;
+    }
+
+    public float getMastDecay() {
+        return mastDecay;
+    }
+
+    /**
+     * Cuts playouts short when units of both players are engaged, the leaf is evaluated on the forecast outcome of the
+     * fight instead. Undecided fights are still played out.
+     *
+     * @param combatCutoffRange The square range within which units are engaged, -1 to disable.
+     */
+    public void setCombatCutoffRange(int combatCutoffRange) {
+        this.combatCutoffRange = combatCutoffRange;
+    }
+
+    public int getCombatCutoffRange() {
+        return combatCutoffRange;
+    }
+
+    /**
+     * Seeds all the random choices of the search. Given the same seed, state and iteration budget, the search returns
+     * the same action. Clones are seeded with the same seed.
+     *
+     * @param seed The seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Returns the number of Monte Carlo runs since the last reset.
+     */
+    public long getTotalRuns() {
+        return totalRuns;
+    }
+
+    /**
+     * Returns the number of nodes of the last search's tree.
+     */
+    public int getTreeSize() {
+        return arena.getNodeCount();
+    }
+
+    public float getUcbConstant() {
+        return ucbConstant;
+    }
+
+    public void setUcbConstant(float ucbConstant) {
+        this.ucbConstant = ucbConstant;
+    }
+
+    /**
+     * Sets the model generating the opponent's unit-actions in min nodes. Defaults to the preselection heuristics.
+     *
+     * @param opponentModel The opponent model.
+     */
+    public void setOpponentModel(OpponentModel opponentModel) {
+        this.opponentModel = opponentModel;
+    }
+
+    public OpponentModel getOpponentModel() {
+        return opponentModel;
+    }
+
 
 
 
@@ -2,10 +2,11 @@ package nmcts;
 
 import preselection.ParametricActionGenerator;
 import preselection.PreSelectionParameters;
+import preselection.UnitRoleRegistry;
 import rts.*;
 import rts.units.Unit;
+import rts.units.UnitTypeTable;
 import util.Pair;
-import util.Sampler;
 
 import java.math.BigInteger;
 import java.util.*;
@@ -16,31 +17,33 @@ public class ParametricNMCTSNode {
     public static final int EPSILON_GREEDY = 0;
     public static final int UCB1 = 1;
 
-    public static float C = 0.05f; // UCB1 Exploration Constant.
-    public static Random random = new Random();
-
     // Typical MCTS Node properties ************************************************
     private int type; // 0 : max, 1 : min, -1 : terminal
-    private ParametricNMCTSNode parent; // the node's parent, if any
+    private NodeArena arena; // holds the statistics and links of the tree's nodes
+    private int id = NodeArena.NONE; // the node's ID in the arena
     private GameState gameState; // the associated game state
     private int depth = 0; // the node's depth in the tree
-    private List<PlayerAction> actions; // the list of outbound actions
-    private List<ParametricNMCTSNode> children; // the list of this node's children
-    private double accumulatedEvaluation = 0; // the accumulated evaluation of this node
-    private int visitCount = 0; // the visit count
+    private int[] incomingActions; // the parent's action leading to this node, the chosen action index of each unit
+                                   // of the parent (-1 for a plain wait)
     private ParametricActionGenerator actionGenerator; // the action generator object
     private PlayerActionGenerator normalActionGenerator;
     private PreSelectionParameters parameters;
+    private UnitRoleRegistry roleRegistry; // the player's unit roles, kept across frames
+    private ActionStatisticsTable actionStatistics; // the tree-wide unit-action statistics, null if disabled
+    private OpponentModel opponentModel; // generates the opponent's unit-actions in min nodes
+    private SplittableRandom random; // the node's random generator, split from its parent's
 
     // NaïveMCTS Specific properties ***********************************************
     private boolean exploreNonSampledActions = true; // to force the exploration of unvisited unit actions
-    private HashMap<BigInteger, ParametricNMCTSNode> childrenMap = new LinkedHashMap<>(); // Maps a binInteger to a node
+    private HashMap<BigInteger, ParametricNMCTSNode> childrenMap = new HashMap<>(); // Maps a binInteger to a node
     private List<UnitActionsTableElement> unitActionsTable; // Each unit's actions and their evaluation and visit count
     private BigInteger [] multipliers; // For action code calculation
 
     private int nodeID = -1;
 
-    List<BigInteger> rejectedActions = new LinkedList<>();
+    // Units whose idle action was rejected by the inactivity filter, by position in unitActionsTable. A unit has a
+    // single idle slot, its last unit-action.
+    BitSet rejectedIdleActions;
 
     // The Constructor. ************************************************************
 
@@ -51,94 +54,87 @@ public class ParametricNMCTSNode {
      * @param parent
      * @param nodeID
      * @param exploreNonSampledActions
+     * @param roleRegistry
+     * @param arena The arena of the tree, the node is added to it once constructed.
+     * @param actionStatistics The tree-wide unit-action statistics seeding the local MABs, null to disable.
+     * @param opponentModel The model generating the opponent's unit-actions in min nodes.
+     * @param random The node's own random generator.
      * @throws Exception
      */
     public ParametricNMCTSNode(int player, GameState gameState, ParametricNMCTSNode parent, int nodeID, boolean exploreNonSampledActions,
-                               PreSelectionParameters parameters) throws Exception {
-        this.parent = parent;
+                               PreSelectionParameters parameters, UnitRoleRegistry roleRegistry, NodeArena arena,
+                               ActionStatisticsTable actionStatistics, OpponentModel opponentModel,
+                               SplittableRandom random) throws Exception {
+        this.arena = arena;
+        this.actionStatistics = actionStatistics;
+        this.opponentModel = opponentModel;
+        this.random = random;
         this.gameState = gameState;
         this.nodeID = nodeID;
         this.exploreNonSampledActions = exploreNonSampledActions;
         this.parameters = parameters;
+        this.roleRegistry = roleRegistry;
 
-        if (this.parent == null) depth = 0; // depth calculation
-        else depth = this.parent.depth + 1;
+        if (parent == null) depth = 0; // depth calculation
+        else depth = parent.depth + 1;
 
-        // Taking account for durative actions :
-        while (this.gameState.winner() == -1 &&
-               !this.gameState.gameover() &&
-               !this.gameState.canExecuteAnyAction(player) &&
-               !this.gameState.canExecuteAnyAction(1 - player))
-            this.gameState.cycle();
+        // Taking account for durative actions, skip to the next cycle where a unit can act :
+        FastForward.toNextDecision(this.gameState, player);
 
         // Type, and other parameters initialization
         if (this.gameState.winner() != -1 || this.gameState.gameover()) // Terminal node
             type = -1;
         else if (this.gameState.canExecuteAnyAction(player)) { // Searching player node
             type = 0;
-            actionGenerator = new ParametricActionGenerator(this.gameState, player, this.parameters);
-            actions = new ArrayList<>();
-            children = new ArrayList<>();
-            unitActionsTable = new LinkedList<>();
-            multipliers = new BigInteger[actionGenerator.getChoices().size()];
+            actionGenerator = new ParametricActionGenerator(this.gameState, player, this.parameters, this.roleRegistry,
+                    random.split());
 
 //            System.out.println("Front Line : " + actionGenerator.getFrontLineUnits());
 //            System.out.println("Back : " + actionGenerator.getBackUnits().size());
 
-            BigInteger baseMultiplier = BigInteger.ONE;
-            int index = 0;
-            for (Pair<Unit, List<UnitAction>> actionChoices : actionGenerator.getChoices()) {
-                UnitActionsTableElement unitActionsElement = new UnitActionsTableElement();
-                unitActionsElement.unit = actionChoices.m_a;
-                unitActionsElement.actions = actionChoices.m_b;
-                unitActionsElement.actionCount = actionChoices.m_b.size();
-                unitActionsElement.accumulatedEvaluation = new double[unitActionsElement.actionCount];
-                unitActionsElement.visitsCount = new int[unitActionsElement.actionCount];
-
-                for (int i = 0; i < unitActionsElement.actionCount; i++) {
-                    unitActionsElement.accumulatedEvaluation[i] = 0;
-                    unitActionsElement.visitsCount[i] = 0;
-                }
-
-                unitActionsTable.add(unitActionsElement);
-                multipliers[index] = baseMultiplier;
-                baseMultiplier = baseMultiplier.multiply(BigInteger.valueOf(unitActionsElement.actionCount));
-                index++;
-            }
+            initUnitActionsTable(actionGenerator.getChoices(), actionGenerator.getPriors());
 
         } else if (this.gameState.canExecuteAnyAction(1 - player)) { // Opponent node
             type = 1;
-            actionGenerator = new ParametricActionGenerator(this.gameState, 1 - player, this.parameters);
 //            normalActionGenerator = new PlayerActionGenerator(this.gameState, 1 - player);
-            actions = new ArrayList<>();
-            children = new ArrayList<>();
-            unitActionsTable = new LinkedList<>();
-            multipliers = new BigInteger[actionGenerator.getChoices().size()]; //
-
-            BigInteger baseMultiplier = BigInteger.ONE;
-            int index = 0;
-            for (Pair<Unit, List<UnitAction>> actionChoices : actionGenerator.getChoices()) { //
-                UnitActionsTableElement unitActionsElement = new UnitActionsTableElement();
-                unitActionsElement.unit = actionChoices.m_a;
-                unitActionsElement.actions = actionChoices.m_b;
-                unitActionsElement.actionCount = actionChoices.m_b.size();
-                unitActionsElement.accumulatedEvaluation = new double[unitActionsElement.actionCount];
-                unitActionsElement.visitsCount = new int[unitActionsElement.actionCount];
-
-                for (int i = 0; i < unitActionsElement.actionCount; i++) {
-                    unitActionsElement.accumulatedEvaluation[i] = 0;
-                    unitActionsElement.visitsCount[i] = 0;
-                }
-
-                unitActionsTable.add(unitActionsElement);
-                multipliers[index] = baseMultiplier;
-                baseMultiplier = baseMultiplier.multiply(BigInteger.valueOf(unitActionsElement.actionCount));
-                index++;
-            }
+            List<Pair<Unit, List<UnitAction>>> choices = new ArrayList<>();
+            List<float[]> priors = new ArrayList<>();
+            opponentModel.generateChoices(this.gameState, 1 - player, this.parameters, random.split(), choices, priors);
+            initUnitActionsTable(choices, priors);
         } else {
             type = -1;
             System.err.println("This should not have happened ...");
         }
+
+        id = arena.addNode(this, parent == null ? NodeArena.NONE : parent.id);
+    }
+
+    /**
+     * Fills the unit-actions table with the units' choices, and reserves their statistics slots in the arena.
+     *
+     * @param choices Each unit and its unit-actions, the idle action last.
+     * @param priors The priors of each unit's unit-actions, null entries if none.
+     */
+    private void initUnitActionsTable(List<Pair<Unit, List<UnitAction>>> choices, List<float[]> priors) {
+        unitActionsTable = new ArrayList<>(choices.size());
+        rejectedIdleActions = new BitSet(choices.size());
+        multipliers = new BigInteger[choices.size()];
+
+        BigInteger baseMultiplier = BigInteger.ONE;
+        int index = 0;
+        for (Pair<Unit, List<UnitAction>> actionChoices : choices) {
+            UnitActionsTableElement unitActionsElement = new UnitActionsTableElement();
+            unitActionsElement.unit = actionChoices.m_a;
+            unitActionsElement.actions = PackedUnitAction.pack(actionChoices.m_b);
+            unitActionsElement.actionCount = actionChoices.m_b.size();
+            unitActionsElement.priors = priors.get(index);
+            unitActionsElement.firstSlot = arena.addSlots(unitActionsElement.actionCount);
+
+            unitActionsTable.add(unitActionsElement);
+            multipliers[index] = baseMultiplier;
+            baseMultiplier = baseMultiplier.multiply(BigInteger.valueOf(unitActionsElement.actionCount));
+            index++;
+        }
     }
 
     /**
@@ -148,33 +144,57 @@ public class ParametricNMCTSNode {
      * @param epsilonGlobal
      * @param epsilonLocal
      * @param globalStrategy
+     * @param C The UCB1 exploration constant.
      * @param maxDepth
      * @param nodeID
      * @param evaluationBound
+     * @param wideningConstant The progressive widening constant k, -1 to disable widening.
+     * @param wideningExponent The progressive widening exponent alpha.
      * @return
      * @throws Exception
      */
     public ParametricNMCTSNode selectLeaf(int player, float epsilon0, float epsilonGlobal, float epsilonLocal, int globalStrategy,
-                                        int maxDepth, int nodeID, double evaluationBound, float allowProbability) throws Exception {
+                                        float C, int maxDepth, int nodeID, double evaluationBound, float allowProbability,
+                                        float wideningConstant, float wideningExponent) throws Exception {
         // Return the current node, if unitActionsTable was not initialized (terminal node)
         // or in case the maximum depth has been reached.
         if (unitActionsTable == null || depth >= maxDepth)
             return this;
 
-        // If the node has children, we can proceed with exploitation.
-        if (children.size() > 0 && random.nextFloat() >= epsilon0) {
+        // If the node has children, we can proceed with exploitation. Also exploit when exploring is not allowed to widen
+        // the node any further.
+        if (arena.getChildCount(id) > 0 &&
+                (random.nextDouble() >= epsilon0 || !mayWiden(wideningConstant, wideningExponent))) {
             // Sample from the global MAB. Exploit.
             ParametricNMCTSNode selected = null;
             if (globalStrategy == EPSILON_GREEDY) selected = selectFromGlobalMABEpsilonGreedy(epsilonGlobal);
             else if (globalStrategy == UCB1) selected = selectFromGlobalMABUCB1(C, evaluationBound);
-            return selected.selectLeaf(player, epsilon0, epsilonGlobal, epsilonLocal, globalStrategy, maxDepth, nodeID,
-                    evaluationBound, allowProbability);
+            return selected.selectLeaf(player, epsilon0, epsilonGlobal, epsilonLocal, globalStrategy, C, maxDepth, nodeID,
+                    evaluationBound, allowProbability, wideningConstant, wideningExponent);
         }
         // If there are no children, we must first add children through the local MAB
         else
             // Sample from the local MABs. Explore. (Construct a new player action)
-            return selectFromLocalMAB(player, epsilon0, epsilonGlobal, epsilonLocal, globalStrategy, maxDepth, nodeID,
-                                      evaluationBound, allowProbability);
+            return selectFromLocalMAB(player, epsilon0, epsilonGlobal, epsilonLocal, globalStrategy, C, maxDepth, nodeID,
+                                      evaluationBound, allowProbability, wideningConstant, wideningExponent);
+    }
+
+    /**
+     * Progressive widening: a node visited N times may hold up to max(1, k * N^alpha) children. Counts the refused
+     * widenings.
+     *
+     * @param wideningConstant The constant k, -1 to disable widening.
+     * @param wideningExponent The exponent alpha.
+     * @return True if a new child may be added to the node.
+     */
+    private boolean mayWiden(float wideningConstant, float wideningExponent) {
+        if (wideningConstant < 0)
+            return true;
+        double maxChildren = Math.max(1, wideningConstant * Math.pow(arena.getVisits(id), wideningExponent));
+        if (arena.getChildCount(id) < maxChildren)
+            return true;
+        arena.countRefusedWidening();
+        return false;
     }
 
     /**
@@ -184,24 +204,24 @@ public class ParametricNMCTSNode {
      */
     private ParametricNMCTSNode selectFromGlobalMABEpsilonGreedy(float epsilonGlobal) {
 
-        ParametricNMCTSNode best = null;
+        int best = NodeArena.NONE;
 
-        if (random.nextFloat() >= epsilonGlobal) { // Exploit : choose the best child.
-            for (ParametricNMCTSNode child : children) {
+        if (random.nextDouble() >= epsilonGlobal) { // Exploit : choose the best child.
+            for (int child = arena.getFirstChild(id); child != NodeArena.NONE; child = arena.getNextSibling(child)) {
                 if (type == 0) { // Max Node
-                    if (best == null ||
-                       (child.accumulatedEvaluation / child.visitCount) > (best.accumulatedEvaluation / best.visitCount))
+                    if (best == NodeArena.NONE ||
+                       (arena.getEvaluation(child) / arena.getVisits(child)) > (arena.getEvaluation(best) / arena.getVisits(best)))
                         best = child;
                 } else {  // Min node
-                    if (best == null ||
-                       (child.accumulatedEvaluation / child.visitCount) < (best.accumulatedEvaluation / best.visitCount))
+                    if (best == NodeArena.NONE ||
+                       (arena.getEvaluation(child) / arena.getVisits(child)) < (arena.getEvaluation(best) / arena.getVisits(best)))
                         best = child;
                 }
             }
         } else // Explore : Choose a child at random.
-            best = children.get(random.nextInt(children.size()));
+            best = arena.getChild(id, random.nextInt(arena.getChildCount(id)));
 
-        return best;
+        return arena.getNode(best);
     }
 
     /**
@@ -211,26 +231,26 @@ public class ParametricNMCTSNode {
      * @return
      */
     private ParametricNMCTSNode selectFromGlobalMABUCB1(float C, double evaluationBound) {
-        ParametricNMCTSNode best = null;
+        int best = NodeArena.NONE;
         double bestScore = 0;
-        for (ParametricNMCTSNode child : children) {
+        for (int child = arena.getFirstChild(id); child != NodeArena.NONE; child = arena.getNextSibling(child)) {
             // Compute the exploitation and exploration terms for each child.
-            double exploitationTerm = child.accumulatedEvaluation / child.visitCount;
-            double explorationTerm = Math.sqrt(Math.log((double) visitCount / child.visitCount));
+            double exploitationTerm = arena.getEvaluation(child) / arena.getVisits(child);
+            double explorationTerm = Math.sqrt(Math.log((double) arena.getVisits(id) / arena.getVisits(child)));
             if (type == 0) // Max node :
                 exploitationTerm = (evaluationBound + exploitationTerm) / (2 * evaluationBound);
             else
                 exploitationTerm = (evaluationBound - exploitationTerm) / (2 * evaluationBound);
 
             double evaluation = exploitationTerm + C * explorationTerm;
-            if (best == null || evaluation > bestScore) {
+            if (best == NodeArena.NONE || evaluation > bestScore) {
                 best = child;
                 bestScore = evaluation;
             }
         }
 
         // Returns the child with the highest UCB1 value.
-        return best;
+        return arena.getNode(best);
     }
 
     /**
@@ -238,8 +258,9 @@ public class ParametricNMCTSNode {
      * @return
      */
     private ParametricNMCTSNode selectFromLocalMAB(int player, float epsilon0, float epsilonGlobal, float epsilonLocal,
-                                                 int globalStrategy, int maxDepth, int nodeID, double evaluationBound,
-                                                 float allowProbability) throws Exception {
+                                                 int globalStrategy, float C, int maxDepth, int nodeID, double evaluationBound,
+                                                 float allowProbability, float wideningConstant,
+                                                 float wideningExponent) throws Exception {
 
         /* ************************************************************************************************************
          * Phase 1 : For each unit, rank the unitActions according to preference. Ranking is done by way of calculating
@@ -256,7 +277,12 @@ public class ParametricNMCTSNode {
             double [] distribution = new double[element.actionCount];
             int bestIndex = -1;
             double bestEvaluation = 0;
-            int lastVisitsCount = 0;
+            double lastVisitsCount = 0;
+
+            // The unit actions' visits and evaluations, seeded with the tree-wide statistics if enabled.
+            double [] visits = new double[element.actionCount];
+            double [] evaluations = new double[element.actionCount];
+            getActionStatistics(element, visits, evaluations);
 
             for (int i = 0 ; i < element.actionCount; i++) {
                 /* Three cases can be identified. (1) The initial case, where bestIndex is -1, the conditional test is
@@ -270,25 +296,25 @@ public class ParametricNMCTSNode {
                  */
                 if (type == 0) { // Max node
                     if (bestIndex == -1 || // (1) initial case.
-                       (lastVisitsCount != 0 && element.visitsCount[i] == 0) || // (2) at least one unvisited unit action.
-                       (lastVisitsCount != 0 && (element.accumulatedEvaluation[i] / element.visitsCount[i]) > bestEvaluation)) {
+                       (lastVisitsCount != 0 && visits[i] == 0) || // (2) at least one unvisited unit action.
+                       (lastVisitsCount != 0 && (evaluations[i] / visits[i]) > bestEvaluation)) {
                         bestIndex = i;
-                        if (element.visitsCount[i] > 0)
-                            bestEvaluation = (element.accumulatedEvaluation[i] / element.visitsCount[i]);
+                        if (visits[i] > 0)
+                            bestEvaluation = (evaluations[i] / visits[i]);
                         else
                             bestEvaluation = 0;
-                        lastVisitsCount = element.visitsCount[i];
+                        lastVisitsCount = visits[i];
                     }
                 } else { // Min node
                     if (bestIndex == -1 ||
-                       (lastVisitsCount != 0 && element.visitsCount[i] == 0) ||
-                       (lastVisitsCount != 0 && (element.accumulatedEvaluation[i] / element.visitsCount[i]) < bestEvaluation)) {
+                       (lastVisitsCount != 0 && visits[i] == 0) ||
+                       (lastVisitsCount != 0 && (evaluations[i] / visits[i]) < bestEvaluation)) {
                        bestIndex = i;
-                       if (element.visitsCount[i] > 0)
-                           bestEvaluation = (element.accumulatedEvaluation[i] / element.visitsCount[i]);
+                       if (visits[i] > 0)
+                           bestEvaluation = (evaluations[i] / visits[i]);
                        else
                            bestEvaluation = 0;
-                       lastVisitsCount = element.visitsCount[i];
+                       lastVisitsCount = visits[i];
                     }
                 }
                 // Distribution value is constant for all unit actions. Will be modified later.
@@ -296,17 +322,21 @@ public class ParametricNMCTSNode {
             }
 
             // Amplify the distribution of the best unit action in case all unit actions were visited (case (3))
-            if (element.visitsCount[bestIndex] != 0)
+            if (visits[bestIndex] != 0)
                 distribution[bestIndex] = (1 - epsilonLocal) + (epsilonLocal / element.actionCount);
             else {
             // In the other case, (2), and if exploreNonSampledActions is activated, every visited action relevant
             // distribution value will be rendered zero, in order to allow a higher exploration chance for unvisited actions.
                 if (exploreNonSampledActions) {
                     for (int i = 0; i < distribution.length; i++)
-                        if (element.visitsCount[i] > 0) distribution[i] = 0;
+                        if (visits[i] > 0) distribution[i] = 0;
                 }
             }
 
+            // Blend in the preselection priors, their weight fading as the unit's actions get visited in this node.
+            if (element.priors != null)
+                blendPriors(element, distribution);
+
 
 
             // Add the items to the relevant list.
@@ -330,6 +360,9 @@ public class ParametricNMCTSNode {
         PlayerAction playerAction = new PlayerAction(); // The player action to construct.
         playerAction.setResourceUsage(currentResourceUsage.clone());
         BigInteger playerActionCode = BigInteger.ZERO; // The player action identifier.
+        int[] chosenActions = new int[unitActionsTable.size()]; // The chosen action index of each unit.
+        Arrays.fill(chosenActions, -1);
+        UnitTypeTable unitTypeTable = gameState.getUnitTypeTable();
 
         while (!toSample.isEmpty()) { // Loop through the units.
 
@@ -351,15 +384,13 @@ public class ParametricNMCTSNode {
                 }
 
                 // Try at random
-                int unitActionCode = (Integer) Sampler.weighted(distributionList, distributionOutputs);
-                UnitAction unitAction = element.actions.get(unitActionCode);
+                int unitActionCode = sampleWeighted(distributionList, distributionOutputs);
+                UnitAction unitAction = PackedUnitAction.unpack(element.actions[unitActionCode], unitTypeTable);
                 ResourceUsage unitActionResourceUsage;
 
-                int noneActionCode = element.actions.size() - 1;
-                int currentWaitDuration = 10;
-                if (element.actions.get(noneActionCode).getType() == UnitAction.TYPE_NONE)
-                    currentWaitDuration = element.actions.get(noneActionCode).getDirection();
-                BigInteger rejectedActionCode;
+                int noneActionCode = element.actions.length - 1;
+                int currentWaitDuration = getWaitDuration(element);
+                int chosenAction; // The index of the issued action, -1 for a wait absent from the unit's actions.
 //                System.out.println(element.actions.get(noneActionCode));
 
                 // Filter out idle unit actions **************** (Pos 1)
@@ -367,20 +398,18 @@ public class ParametricNMCTSNode {
                 if (distributionList.size() > 1 && unitAction.getType() == UnitAction.TYPE_NONE &&
                     allowProbability < 1) {
 
-                    rejectedActionCode = BigInteger.valueOf(noneActionCode).multiply(multipliers[unitIndex]);
-                    boolean previouslyRejected = rejectedActions.contains(rejectedActionCode);
+                    boolean previouslyRejected = rejectedIdleActions.get(unitIndex);
 
-                    if ((random.nextFloat() >= allowProbability) || previouslyRejected) {
+                    if ((random.nextDouble() >= allowProbability) || previouslyRejected) {
                         // Remove the unit action and sample another one.
 //                        System.out.println(this.nodeID + " Inaction Pruned");
                         int noneActionIndex = distributionOutputs.indexOf(noneActionCode);
                         distributionList.remove(noneActionIndex);
                         distributionOutputs.remove(noneActionIndex);
-                        /*if (!previouslyRejected)*/
-                        rejectedActions.add(rejectedActionCode);
+                        rejectedIdleActions.set(unitIndex);
 
-                        unitActionCode = (Integer) Sampler.weighted(distributionList, distributionOutputs);
-                        unitAction = element.actions.get(unitActionCode);
+                        unitActionCode = sampleWeighted(distributionList, distributionOutputs);
+                        unitAction = PackedUnitAction.unpack(element.actions[unitActionCode], unitTypeTable);
                     }
                 }
 
@@ -397,8 +426,8 @@ public class ParametricNMCTSNode {
 
                     // Try another unit action.
                     if (!distributionList.isEmpty()) {
-                        unitActionCode = (Integer) Sampler.weighted(distributionList, distributionOutputs);
-                        unitAction = element.actions.get(unitActionCode);
+                        unitActionCode = sampleWeighted(distributionList, distributionOutputs);
+                        unitAction = PackedUnitAction.unpack(element.actions[unitActionCode], unitTypeTable);
                     } else {
                         unitActionCode = noneActionCode;
                         unitAction = new UnitAction(UnitAction.TYPE_NONE, currentWaitDuration);
@@ -408,19 +437,17 @@ public class ParametricNMCTSNode {
                     if (distributionList.size() > 1 && unitAction.getType() == UnitAction.TYPE_NONE
                             && allowProbability < 1) {
 
-                        rejectedActionCode = BigInteger.valueOf(noneActionCode).multiply(multipliers[unitIndex]);
-                        boolean previouslyRejected = rejectedActions.contains(rejectedActionCode);
+                        boolean previouslyRejected = rejectedIdleActions.get(unitIndex);
 
-                        if (random.nextFloat() >= allowProbability || previouslyRejected) {
+                        if (random.nextDouble() >= allowProbability || previouslyRejected) {
                             // Remove the unit action and sample another one.
                             int noneActionIndex = distributionOutputs.indexOf(noneActionCode);
                             distributionList.remove(noneActionIndex);
                             distributionOutputs.remove(noneActionIndex);
-                            /*if (!previouslyRejected)*/
-                            rejectedActions.add(rejectedActionCode);
+                            rejectedIdleActions.set(unitIndex);
 
-                            unitActionCode = (Integer) Sampler.weighted(distributionList, distributionOutputs);
-                            unitAction = element.actions.get(unitActionCode);
+                            unitActionCode = sampleWeighted(distributionList, distributionOutputs);
+                            unitAction = PackedUnitAction.unpack(element.actions[unitActionCode], unitTypeTable);
                         }
 //                        } else
 //                            inactionsCounter++;
@@ -438,6 +465,12 @@ public class ParametricNMCTSNode {
                 // At this point a consistent unit action is found.
                 playerAction.getResourceUsage().merge(unitActionResourceUsage);
                 playerAction.addUnitAction(element.unit, unitAction);
+                chosenAction = unitActionCode;
+                if (unitActionCode == noneActionCode &&
+                        PackedUnitAction.getType(element.actions[noneActionCode]) != UnitAction.TYPE_NONE &&
+                        unitAction.getType() == UnitAction.TYPE_NONE)
+                    chosenAction = -1;
+                chosenActions[unitIndex] = chosenAction;
 
                 // Compute the player action code incrementally.
                 playerActionCode = playerActionCode.add(BigInteger.valueOf(unitActionCode).multiply(multipliers[unitIndex]));
@@ -452,17 +485,18 @@ public class ParametricNMCTSNode {
         // Check whether a node of the same playerActionCode already exists.
         ParametricNMCTSNode oldChild = childrenMap.get(playerActionCode);
         if (oldChild == null) { // If no node with the same playerActionCode exists, create one.
-            actions.add(playerAction);
             GameState newGameState = gameState.cloneIssue(playerAction);
             ParametricNMCTSNode newChild = new ParametricNMCTSNode(player, newGameState.clone(), this, nodeID,
-                    exploreNonSampledActions, parameters);
+                    exploreNonSampledActions, parameters, roleRegistry, arena, actionStatistics, opponentModel,
+                    random.split());
+            newChild.incomingActions = chosenActions;
             childrenMap.put(playerActionCode, newChild);
-            children.add(newChild);
             return newChild;
         }
 
         // If a child with the same playerActionCode exists, go down the tree, i.e. select a child from his children.
-        return oldChild.selectLeaf(player, epsilon0, epsilonGlobal, epsilonLocal, globalStrategy, maxDepth, nodeID, evaluationBound, allowProbability);
+        return oldChild.selectLeaf(player, epsilon0, epsilonGlobal, epsilonLocal, globalStrategy, C, maxDepth, nodeID, evaluationBound,
+                allowProbability, wideningConstant, wideningExponent);
     }
 
     /**
@@ -472,46 +506,113 @@ public class ParametricNMCTSNode {
      */
     public void backpropagate(double evaluation, ParametricNMCTSNode child) {
         // Update the node's accumulated evaluation and visit count.
-        accumulatedEvaluation += evaluation;
-        visitCount++;
+        arena.addVisit(id, evaluation);
 
         if (child != null) { // if a child is provided.
-            // Extract the index of the child and the relevant playerAction.
-            int index = children.indexOf(child);
-            PlayerAction playerAction = actions.get(index);
-
-            // For each unitAction in the playerAction, update the respective accumulated evaluation and visit count.
-            for (Pair<Unit, UnitAction> unitAction : playerAction.getActions()) {
-                // Extract the unit's relevant unitActionsTable element.
-                UnitActionsTableElement element = getActionTableElement(unitAction.m_a);
-                index = element.actions.indexOf(unitAction.m_b); // Extract the index of the chosen unitAction
-
-                if (index == -1) { // in case the unit action does not exist.
-                    System.out.println("Looking for action : " + unitAction.m_b);
-                    System.out.println("Available actions are : " + element.actions);
-                }
+            // Extract the unit actions chosen to reach the child.
+            int[] chosenActions = child.incomingActions;
 
-                // Update the statistics of the chosen unit action in its relevant position in the accumulatedEvaluation
-                // and visitsCount array of the unit's element.
-                element.accumulatedEvaluation[index] += evaluation;
-                element.visitsCount[index]++;
+            // For each unit, update the accumulated evaluation and visit count of the chosen unit action, in its
+            // relevant slot of the unit's statistics.
+            for (int unitIndex = 0; unitIndex < chosenActions.length; unitIndex++) {
+                if (chosenActions[unitIndex] == -1) continue; // No action of the unit's actions was issued.
+                UnitActionsTableElement element = unitActionsTable.get(unitIndex);
+                arena.addActionVisit(element.firstSlot + chosenActions[unitIndex], evaluation);
+                if (actionStatistics != null)
+                    actionStatistics.update(element.unit.getID(), element.actions[chosenActions[unitIndex]], evaluation);
             }
         }
 
         // If the node has a parent, backpropagate to this parent, sending a reference to this child as an argument.
-        if (parent != null)
-            parent.backpropagate(evaluation, this);
+        if (arena.getParent(id) != NodeArena.NONE)
+            arena.getNode(arena.getParent(id)).backpropagate(evaluation, this);
+    }
+
+    /**
+     * Samples an output with probability proportional to its weight, using the node's random generator.
+     *
+     * @param distribution The weights.
+     * @param outputs The outputs, one per weight.
+     * @return The sampled output.
+     * @throws Exception If the distribution is empty.
+     */
+    private int sampleWeighted(List<Double> distribution, List<Integer> outputs) throws Exception {
+        double total = 0;
+        for (double weight : distribution)
+            total += weight;
+
+        double sample = random.nextDouble() * total, accumulated = 0;
+        for (int i = 0; i < distribution.size(); i++) {
+            accumulated += distribution.get(i);
+            if (accumulated >= sample)
+                return outputs.get(i);
+        }
+        throw new Exception("Sampling from an empty distribution");
+    }
+
+    /**
+     * Mixes the unit's priors into its normalised distribution, with the weight w = v / (v + n), v being the priors'
+     * virtual visits and n the unit's visits in this node.
+     */
+    private void blendPriors(UnitActionsTableElement element, double[] distribution) {
+        double visits = 0, total = 0;
+        for (int i = 0; i < element.actionCount; i++) {
+            visits += arena.getActionVisits(element.firstSlot + i);
+            total += distribution[i];
+        }
+        double priorWeight = parameters.getPriorVirtualVisits() / (parameters.getPriorVirtualVisits() + visits);
+        for (int i = 0; i < element.actionCount; i++)
+            distribution[i] = (1 - priorWeight) * (total > 0 ? distribution[i] / total : 0) + priorWeight * element.priors[i];
+    }
+
+    /**
+     * Fills the visits and accumulated evaluations of the unit's actions in this node. When the tree-wide statistics are
+     * enabled, each unit action is given virtual visits at its tree-wide mean evaluation. Their weight is bounded, and
+     * fades as the node's own visits accumulate.
+     */
+    private void getActionStatistics(UnitActionsTableElement element, double[] visits, double[] evaluations) {
+        for (int i = 0; i < element.actionCount; i++) {
+            visits[i] = arena.getActionVisits(element.firstSlot + i);
+            evaluations[i] = arena.getActionEvaluation(element.firstSlot + i);
+            if (actionStatistics != null) {
+                double virtualVisits = actionStatistics.getVirtualVisits(element.unit.getID(), element.actions[i]);
+                visits[i] += virtualVisits;
+                evaluations[i] += virtualVisits * actionStatistics.getMeanEvaluation(element.unit.getID(), element.actions[i]);
+            }
+        }
     }
 
     /**
-     * Returns the action table element for the given unit.
-     * @param unit The unit in question.
-     * @return The relevant unit action table element.
+     * Returns the wait duration of the unit's idle action, the default duration if the unit has none.
      */
-    private UnitActionsTableElement getActionTableElement(Unit unit) {
-        for (UnitActionsTableElement element : unitActionsTable)
-            if (element.unit == unit) return element;
-        throw new Error("Could not find Action Table element.");
+    private int getWaitDuration(UnitActionsTableElement element) {
+        int noneAction = element.actions[element.actions.length - 1];
+        if (PackedUnitAction.getType(noneAction) == UnitAction.TYPE_NONE)
+            return PackedUnitAction.getWaitDuration(noneAction);
+        return 10;
+    }
+
+    /**
+     * Decodes the player action leading to the given child.
+     *
+     * @param childIndex The index of the child.
+     * @return A new player action, holding the resource usage of its unit actions.
+     */
+    public PlayerAction getPlayerAction(int childIndex) {
+        int[] chosenActions = arena.getNode(arena.getChild(id, childIndex)).incomingActions;
+        PlayerAction playerAction = new PlayerAction();
+        ResourceUsage resourceUsage = new ResourceUsage();
+
+        for (int unitIndex = 0; unitIndex < chosenActions.length; unitIndex++) {
+            UnitActionsTableElement element = unitActionsTable.get(unitIndex);
+            UnitAction unitAction = chosenActions[unitIndex] == -1 ?
+                    new UnitAction(UnitAction.TYPE_NONE, getWaitDuration(element)) :
+                    PackedUnitAction.unpack(element.actions[chosenActions[unitIndex]], gameState.getUnitTypeTable());
+            resourceUsage.merge(unitAction.resourceUsage(element.unit, gameState.getPhysicalGameState()));
+            playerAction.addUnitAction(element.unit, unitAction);
+        }
+        playerAction.setResourceUsage(resourceUsage);
+        return playerAction;
     }
 
     public ParametricActionGenerator getActionGenerator() {
@@ -522,20 +623,28 @@ public class ParametricNMCTSNode {
         return gameState;
     }
 
-    public List<PlayerAction> getActions() {
-        return actions;
-    }
-
+    /**
+     * Returns the node's children, in order of creation, null for terminal nodes.
+     */
     public List<ParametricNMCTSNode> getChildren() {
+        if (unitActionsTable == null)
+            return null;
+        List<ParametricNMCTSNode> children = new ArrayList<>(arena.getChildCount(id));
+        for (int child = arena.getFirstChild(id); child != NodeArena.NONE; child = arena.getNextSibling(child))
+            children.add(arena.getNode(child));
         return children;
     }
 
     public int getVisitCount() {
-        return visitCount;
+        return arena.getVisits(id);
+    }
+
+    public int getChildCount() {
+        return arena.getChildCount(id);
     }
 
     public double getAccumulatedEvaluation() {
-        return accumulatedEvaluation;
+        return arena.getEvaluation(id);
     }
 
     public int getDepth() {
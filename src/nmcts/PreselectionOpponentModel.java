@@ -0,0 +1,38 @@
+package nmcts;
+
+import preselection.ParametricActionGenerator;
+import preselection.PreSelectionParameters;
+import rts.GameState;
+import rts.UnitAction;
+import rts.units.Unit;
+import util.Pair;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Models the opponent as thinking like us: its unit-actions are filtered by the same preselection heuristics and
+ * parameters as the searching player's.
+ */
+public class PreselectionOpponentModel implements OpponentModel {
+
+    @Override
+    public void generateChoices(GameState gameState, int opponent, PreSelectionParameters parameters,
+                                SplittableRandom random, List<Pair<Unit, List<UnitAction>>> choices,
+                                List<float[]> priors) throws Exception {
+        ParametricActionGenerator actionGenerator = new ParametricActionGenerator(gameState, opponent, parameters, null,
+                random);
+        choices.addAll(actionGenerator.getChoices());
+        priors.addAll(actionGenerator.getPriors());
+    }
+
+    @Override
+    public OpponentModel clone() {
+        return new PreselectionOpponentModel();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,129 @@
+package nmcts;
+
+import ai.abstraction.LightRush;
+import ai.abstraction.WorkerDefense;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import preselection.PreSelectionParameters;
+import rts.GameState;
+import rts.PlayerAction;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+import util.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Models the opponent as a small set of scripts. Each opponent unit able to act gets the distinct unit-actions the
+ * scripts issue to it, plus a wait, a much narrower choice than the preselection's, and cheaper to produce. When the
+ * local MABs use priors, each unit-action's prior is the share of scripts issuing it, the wait counting one extra vote.
+ */
+public class ScriptedOpponentModel implements OpponentModel {
+
+    private final List<AI> scripts;
+
+    /**
+     * Rush, light rush and defense scripts.
+     */
+    public ScriptedOpponentModel(UnitTypeTable unitTypeTable) {
+        this(Arrays.asList(new WorkerRush(unitTypeTable), new LightRush(unitTypeTable),
+                new WorkerDefense(unitTypeTable)));
+    }
+
+    /**
+     * @param scripts The scripts playing the opponent.
+     */
+    public ScriptedOpponentModel(List<AI> scripts) {
+        this.scripts = scripts;
+    }
+
+    @Override
+    public void generateChoices(GameState gameState, int opponent, PreSelectionParameters parameters,
+                                SplittableRandom random, List<Pair<Unit, List<UnitAction>>> choices,
+                                List<float[]> priors) throws Exception {
+
+        // Unit-actions issued by the scripts, and their votes, by unit.
+        Map<Unit, List<UnitAction>> unitActions = new HashMap<>();
+        Map<Unit, List<Integer>> votes = new HashMap<>();
+        for (AI script : scripts) {
+            PlayerAction playerAction = script.getAction(opponent, gameState);
+            for (Pair<Unit, UnitAction> unitAction : playerAction.getActions()) {
+                if (!unitActions.containsKey(unitAction.m_a)) {
+                    unitActions.put(unitAction.m_a, new ArrayList<>());
+                    votes.put(unitAction.m_a, new ArrayList<>());
+                }
+                addVote(unitActions.get(unitAction.m_a), votes.get(unitAction.m_a), unitAction.m_b);
+            }
+        }
+
+        UnitAction waitAction = new UnitAction(UnitAction.TYPE_NONE, parameters.getDefaultWaitDuration());
+        for (Unit unit : gameState.getPhysicalGameState().getUnits()) {
+            if (unit.getPlayer() != opponent || gameState.getActionAssignment(unit) != null)
+                continue;
+
+            List<UnitAction> actions = unitActions.containsKey(unit) ? unitActions.get(unit) : new ArrayList<>();
+            List<Integer> actionVotes = votes.containsKey(unit) ? votes.get(unit) : new ArrayList<>();
+            addVote(actions, actionVotes, waitAction);
+            moveToEnd(actions, actionVotes, waitAction);
+
+            choices.add(new Pair<>(unit, actions));
+            priors.add(parameters.getPriorVirtualVisits() > 0 ? getPriors(actionVotes) : null);
+        }
+    }
+
+    /**
+     * Counts a vote for the unit-action, adding it to the unit's actions if no script issued it before.
+     */
+    private static void addVote(List<UnitAction> actions, List<Integer> votes, UnitAction unitAction) {
+        int packedAction = PackedUnitAction.pack(unitAction);
+        for (int i = 0; i < actions.size(); i++)
+            if (PackedUnitAction.pack(actions.get(i)) == packedAction) {
+                votes.set(i, votes.get(i) + 1);
+                return;
+            }
+        actions.add(unitAction);
+        votes.add(1);
+    }
+
+    /**
+     * Moves the wait action to the end of the list, the idle slot of the unit in the search tree.
+     */
+    private static void moveToEnd(List<UnitAction> actions, List<Integer> votes, UnitAction waitAction) {
+        int packedWait = PackedUnitAction.pack(waitAction);
+        for (int i = 0; i < actions.size(); i++)
+            if (PackedUnitAction.pack(actions.get(i)) == packedWait) {
+                actions.add(actions.remove(i));
+                votes.add(votes.remove(i));
+                return;
+            }
+    }
+
+    private static float[] getPriors(List<Integer> votes) {
+        float total = 0;
+        for (int vote : votes)
+            total += vote;
+        float[] priors = new float[votes.size()];
+        for (int i = 0; i < priors.length; i++)
+            priors[i] = votes.get(i) / total;
+        return priors;
+    }
+
+    @Override
+    public OpponentModel clone() {
+        List<AI> scriptsClone = new ArrayList<>(scripts.size());
+        for (AI script : scripts)
+            scriptsClone.add(script.clone());
+        return new ScriptedOpponentModel(scriptsClone);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + scripts;
+    }
+}
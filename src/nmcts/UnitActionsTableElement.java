@@ -1,14 +1,11 @@
 package nmcts;
 
-import rts.UnitAction;
 import rts.units.Unit;
 
-import java.util.List;
-
 public class UnitActionsTableElement {
     public Unit unit;
     public int actionCount = 0;
-    public List<UnitAction> actions;
-    public double[] accumulatedEvaluation;
-    public int[] visitsCount;
+    public int[] actions; // Packed unit-actions, see PackedUnitAction.
+    public float[] priors; // Normalised preselection priors of the unit-actions, null if none.
+    public int firstSlot; // The unit-action statistics of the unit, from this slot of the node arena.
 }
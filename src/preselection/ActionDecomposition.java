@@ -0,0 +1,169 @@
+package preselection;
+
+import rts.UnitAction;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The decomposition of a unit's possible actions by type. Actions are bucketed into consecutive index ranges of a
+ * single array, keeping their original order inside each bucket. One instance is kept per thread and reused for every
+ * unit, so decomposing does not allocate once the buffer has grown to the largest action list. A decomposition is
+ * valid until the next call to decompose on the same thread.
+ */
+final class ActionDecomposition {
+
+    // Action buckets *************************************************************************************************
+    static final int MOVE = 0; // TYPE_MOVE
+    static final int HARVEST = 1; // TYPE_HARVEST and TYPE_RETURN
+    static final int ATTACK = 2; // TYPE_ATTACK_LOCATION
+    static final int PRODUCE_BARRACKS = 3; // TYPE_PRODUCE, by produced unit type.
+    static final int PRODUCE_BASE = 4;
+    static final int PRODUCE_WORKER = 5;
+    static final int PRODUCE_LIGHT = 6;
+    static final int PRODUCE_RANGED = 7;
+    static final int PRODUCE_HEAVY = 8;
+    private static final int BUCKETS = 9;
+    private static final int NO_BUCKET = -1; // TYPE_NONE and unknown actions.
+
+    private static final ThreadLocal<ActionDecomposition> buffers = ThreadLocal.withInitial(ActionDecomposition::new);
+
+    private UnitAction[] actions = new UnitAction[32]; // Bucketed actions.
+    private byte[] actionBuckets = new byte[32]; // Bucket of each action of the decomposed list, in list order.
+    private final int[] bucketStart = new int[BUCKETS + 1]; // Bucket b spans [bucketStart[b], bucketStart[b + 1]).
+    private final int[] bucketEnd = new int[BUCKETS]; // Fill pointers, used while placing.
+
+    UnitAction waitAction; // TYPE_NONE
+
+    private ActionDecomposition() {
+    }
+
+    /**
+     * Decomposes the given actions into the calling thread's buffer.
+     *
+     * @param unitActions All the possible unit-actions of a unit.
+     * @return The thread's decomposition buffer.
+     */
+    static ActionDecomposition decompose(List<UnitAction> unitActions) {
+        ActionDecomposition decomposition = buffers.get();
+        decomposition.fill(unitActions);
+        return decomposition;
+    }
+
+    /**
+     * Counting sort of the actions by bucket, in two passes.
+     */
+    private void fill(List<UnitAction> unitActions) {
+        int actionCount = unitActions.size();
+        if (actions.length < actionCount) {
+            actions = new UnitAction[Math.max(actionCount, actions.length * 2)];
+            actionBuckets = new byte[actions.length];
+        }
+
+        waitAction = null;
+        Arrays.fill(bucketStart, 0);
+
+        int index = 0;
+        for (UnitAction unitAction : unitActions) {
+            int bucket = bucketOf(unitAction);
+            if (bucket == NO_BUCKET && unitAction.getType() == UnitAction.TYPE_NONE)
+                waitAction = unitAction;
+            actionBuckets[index++] = (byte) bucket;
+            if (bucket != NO_BUCKET)
+                bucketStart[bucket + 1]++;
+        }
+
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            bucketStart[bucket + 1] += bucketStart[bucket];
+            bucketEnd[bucket] = bucketStart[bucket];
+        }
+
+        index = 0;
+        for (UnitAction unitAction : unitActions) {
+            int bucket = actionBuckets[index++];
+            if (bucket != NO_BUCKET)
+                actions[bucketEnd[bucket]++] = unitAction;
+        }
+
+        // Release references to actions of previous units.
+        for (int i = bucketStart[BUCKETS]; i < actions.length && actions[i] != null; i++)
+            actions[i] = null;
+    }
+
+    private static int bucketOf(UnitAction unitAction) {
+        switch (unitAction.getType()) {
+            case UnitAction.TYPE_MOVE:
+                return MOVE;
+            case UnitAction.TYPE_HARVEST:
+            case UnitAction.TYPE_RETURN:
+                return HARVEST;
+            case UnitAction.TYPE_ATTACK_LOCATION:
+                return ATTACK;
+            case UnitAction.TYPE_PRODUCE:
+                switch (unitAction.getUnitType().name) {
+                    case "Barracks": return PRODUCE_BARRACKS;
+                    case "Base": return PRODUCE_BASE;
+                    case "Worker": return PRODUCE_WORKER;
+                    case "Light": return PRODUCE_LIGHT;
+                    case "Ranged": return PRODUCE_RANGED;
+                    case "Heavy": return PRODUCE_HEAVY;
+                    default: return NO_BUCKET;
+                }
+            default:
+                return NO_BUCKET;
+        }
+    }
+
+    int size(int bucket) {
+        return bucketStart[bucket + 1] - bucketStart[bucket];
+    }
+
+    boolean isEmpty(int bucket) {
+        return bucketStart[bucket + 1] == bucketStart[bucket];
+    }
+
+    UnitAction get(int bucket, int index) {
+        return actions[bucketStart[bucket] + index];
+    }
+
+    /**
+     * Appends all the actions of a bucket to the output list.
+     */
+    void addAllTo(int bucket, List<UnitAction> output) {
+        for (int i = bucketStart[bucket]; i < bucketStart[bucket + 1]; i++)
+            output.add(actions[i]);
+    }
+
+    /**
+     * Appends a number of randomly chosen actions of a bucket to the output list. If the bucket holds no more than
+     * maxChoices actions, all of them are appended in their original order. The bucket may be reordered.
+     *
+     * @param bucket The bucket to chose from.
+     * @param maxChoices The maximum number of actions to chose, -1 for all.
+     * @param output The output list.
+     * @param random The random generator.
+     */
+    void addRandomTo(int bucket, int maxChoices, List<UnitAction> output, SplittableRandom random) {
+        int start = bucketStart[bucket], end = bucketStart[bucket + 1];
+        if (maxChoices == -1 || maxChoices >= end - start) {
+            addAllTo(bucket, output);
+            return;
+        }
+        // Partial Fisher-Yates shuffle over the bucket's range.
+        for (int chosen = 0; chosen < maxChoices; chosen++) {
+            int pick = start + chosen + random.nextInt(end - start - chosen);
+            UnitAction action = actions[pick];
+            actions[pick] = actions[start + chosen];
+            actions[start + chosen] = action;
+            output.add(action);
+        }
+    }
+
+    /**
+     * Returns a random action of a bucket.
+     */
+    UnitAction getRandom(int bucket, SplittableRandom random) {
+        return get(bucket, random.nextInt(size(bucket)));
+    }
+}
@@ -0,0 +1,39 @@
+package preselection;
+
+import java.util.List;
+
+/**
+ * Defers the updates of the shared caches made by a unit filtered in parallel. While a journal is open on a thread,
+ * the caches are only read there, and their updates (insertions and recency changes) are recorded instead of applied.
+ * The action generator replays the journals in unit order once all the units are filtered, so that the caches, and
+ * any later answer read from them, do not depend on the scheduling of the threads.
+ */
+final class CacheJournal {
+
+    private static final ThreadLocal<List<Runnable>> openJournal = new ThreadLocal<>();
+
+    private CacheJournal() {
+    }
+
+    /**
+     * Records the updates of the calling thread in the given journal, until closed.
+     */
+    static void open(List<Runnable> journal) {
+        openJournal.set(journal);
+    }
+
+    static void close() {
+        openJournal.remove();
+    }
+
+    /**
+     * Applies the update, or records it if a journal is open on the calling thread.
+     */
+    static void apply(Runnable update) {
+        List<Runnable> journal = openJournal.get();
+        if (journal == null)
+            update.run();
+        else
+            journal.add(update);
+    }
+}
@@ -0,0 +1,235 @@
+package preselection;
+
+import ai.abstraction.pathfinding.PathFinding;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.units.Unit;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A memoising wrapper around a PathFinding instance. The same queries are issued over and over by sibling and
+ * descendant nodes of the search tree, while the terrain around the path is mostly unchanged. The moves returned by the
+ * path finder are cached by query type, start, target, range, the map's terrain and a hash of the occupancy of the area
+ * spanned by the start and target positions (widened by a margin). Paths detouring out of this area may be answered
+ * from a stale layout, the returned move is still valid since the cells next to the start are always part of the
+ * hashed area. Path existence and distance queries depend on the whole path, and are not cached.
+ * The cache is bounded, the least recently used entries are evicted first. The cache is shared between threads, each
+ * thread searches with its own instance of the wrapped path finder.
+ */
+public class CachedPathFinding extends PathFinding {
+
+    // Query types ****************************************************************************************************
+    private static final int FIND_PATH = 2;
+    private static final int FIND_PATH_IN_RANGE = 3;
+    private static final int FIND_PATH_ADJACENT = 4;
+
+    private static final int AREA_MARGIN = 2; // Cells added around the start-target bounding box.
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final Object NO_RESULT = new Object(); // Marks cached null answers.
+
+    private final ThreadLocal<PathFinding> pathFinders; // Path finders keep search buffers, one instance per thread.
+    private final Map<PathQuery, Object> cache;
+    private long hits = 0;
+    private long misses = 0;
+
+    public CachedPathFinding(Supplier<PathFinding> pathFinderFactory) {
+        this(pathFinderFactory, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param pathFinderFactory Creates the wrapped path finder, called once per searching thread.
+     * @param capacity The maximum number of cached answers.
+     */
+    public CachedPathFinding(Supplier<PathFinding> pathFinderFactory, int capacity) {
+        this.pathFinders = ThreadLocal.withInitial(pathFinderFactory);
+        // In insertion order, recency is updated explicitly, read-only look-ups are needed while units are filtered in
+        // parallel (see CacheJournal).
+        this.cache = new LinkedHashMap<PathQuery, Object>(capacity, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PathQuery, Object> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Override
+    public boolean pathExists(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        return pathFinders.get().pathExists(start, targetpos, gs, ru);
+    }
+
+    @Override
+    public boolean pathToPositionInRangeExists(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        return pathFinders.get().pathToPositionInRangeExists(start, targetpos, range, gs, ru);
+    }
+
+    @Override
+    public UnitAction findPath(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        PathQuery query = new PathQuery(FIND_PATH, start, targetpos, 0, gs, ru);
+        Object answer = lookup(query);
+        if (answer == null) {
+            answer = pathFinders.get().findPath(start, targetpos, gs, ru);
+            store(query, answer);
+        }
+        return answer == NO_RESULT ? null : (UnitAction) answer;
+    }
+
+    @Override
+    public UnitAction findPathToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        PathQuery query = new PathQuery(FIND_PATH_IN_RANGE, start, targetpos, range, gs, ru);
+        Object answer = lookup(query);
+        if (answer == null) {
+            answer = pathFinders.get().findPathToPositionInRange(start, targetpos, range, gs, ru);
+            store(query, answer);
+        }
+        return answer == NO_RESULT ? null : (UnitAction) answer;
+    }
+
+    @Override
+    public UnitAction findPathToAdjacentPosition(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        PathQuery query = new PathQuery(FIND_PATH_ADJACENT, start, targetpos, 1, gs, ru);
+        Object answer = lookup(query);
+        if (answer == null) {
+            answer = pathFinders.get().findPathToAdjacentPosition(start, targetpos, gs, ru);
+            store(query, answer);
+        }
+        return answer == NO_RESULT ? null : (UnitAction) answer;
+    }
+
+    @Override
+    public int findDistToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        return pathFinders.get().findDistToPositionInRange(start, targetpos, range, gs, ru);
+    }
+
+    /**
+     * Returns the cached answer of the query, null if not cached. Counts hits and misses. A hit becomes the most
+     * recently used entry.
+     */
+    private synchronized Object lookup(PathQuery query) {
+        Object answer = cache.get(query);
+        if (answer == null) misses++;
+        else {
+            hits++;
+            CacheJournal.apply(() -> touch(query));
+        }
+        return answer;
+    }
+
+    private void store(PathQuery query, Object answer) {
+        CacheJournal.apply(() -> put(query, answer == null ? NO_RESULT : answer));
+    }
+
+    private synchronized void put(PathQuery query, Object answer) {
+        cache.put(query, answer);
+    }
+
+    /**
+     * Moves the entry to the most recently used end of the cache.
+     */
+    private synchronized void touch(PathQuery query) {
+        Object answer = cache.remove(query);
+        if (answer != null)
+            cache.put(query, answer);
+    }
+
+    /**
+     * Empties the cache and resets the counters.
+     */
+    public synchronized void clear() {
+        cache.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the calling thread's instance of the wrapped path finder.
+     */
+    public PathFinding getPathFinder() {
+        return pathFinders.get();
+    }
+
+    /**
+     * The wrapped path finder's name, so that parameter serialization is unaffected by the cache.
+     */
+    @Override
+    public String toString() {
+        return pathFinders.get().toString();
+    }
+
+    /**
+     * A path finding query, identified by its type, start, target, range, the terrain and the occupancy around the
+     * path.
+     */
+    private static final class PathQuery {
+
+        private final int type;
+        private final int start;
+        private final int target;
+        private final int range;
+        private final long occupancy;
+
+        PathQuery(int type, Unit unit, int target, int range, GameState gameState, ResourceUsage resourceUsage) {
+            PhysicalGameState physicalGameState = gameState.getPhysicalGameState();
+            int width = physicalGameState.getWidth();
+
+            this.type = type;
+            this.start = unit.getX() + unit.getY() * width;
+            this.target = target;
+            this.range = range;
+
+            // The area spanned by the start and target positions, widened by the range and a margin.
+            int margin = Math.max(range, 0) + AREA_MARGIN;
+            int targetX = target % width, targetY = target / width;
+            int minX = Math.min(unit.getX(), targetX) - margin, maxX = Math.max(unit.getX(), targetX) + margin;
+            int minY = Math.min(unit.getY(), targetY) - margin, maxY = Math.max(unit.getY(), targetY) + margin;
+
+            long hash = TerrainHash.of(physicalGameState);
+            for (Unit other : physicalGameState.getUnits())
+                if (other.getX() >= minX && other.getX() <= maxX && other.getY() >= minY && other.getY() <= maxY)
+                    hash += mix(other.getX() + other.getY() * width);
+            if (resourceUsage != null)
+                for (int position : resourceUsage.getPositionsUsed()) {
+                    int x = position % width, y = position / width;
+                    if (x >= minX && x <= maxX && y >= minY && y <= maxY)
+                        hash += mix(~position);
+                }
+            this.occupancy = hash;
+        }
+
+        private static long mix(long value) {
+            value *= 0x9E3779B97F4A7C15L;
+            return value ^ (value >>> 31);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof PathQuery)) return false;
+            PathQuery query = (PathQuery) other;
+            return type == query.type && start == query.start && target == query.target && range == query.range &&
+                    occupancy == query.occupancy;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = type;
+            hash = 31 * hash + start;
+            hash = 31 * hash + target;
+            hash = 31 * hash + range;
+            hash = 31 * hash + (int) (occupancy ^ (occupancy >>> 32));
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package preselection;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.units.Unit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Forecasts the outcome of a local fight between two groups of units, without simulating the game. Every unit deals its
+ * average damage per cycle (average of its minimum and maximum damage, over its attack time) once it has closed the
+ * distance to its closest enemy, and both sides focus their fire on the weakest enemy unit, excess damage carrying over
+ * to the next one. Ranged units thus get free shots on approaching melee units, and units that cannot move only fire
+ * at enemies already in range. The fight is played in aggregate, cycle by cycle, until one side is destroyed.
+ */
+public class CombatEstimator {
+
+    // Outcomes *******************************************************************************************************
+    public static final int PLAYER_WINS = 0;
+    public static final int OPPONENT_WINS = 1;
+    public static final int UNDECIDED = -1; // Both sides destroyed, no side able to deal damage, or fight too long.
+
+    private static final int MAX_CYCLES = 1000;
+
+    private final List<Unit> playerUnits;
+    private final List<Unit> opponentUnits;
+    private final float[] playerHitPoints; // Remaining hit points, in the order of the unit lists.
+    private final float[] opponentHitPoints;
+    private int winner = UNDECIDED;
+    private int duration = 0;
+
+    /**
+     * Forecasts the fight between the given units.
+     *
+     * @param playerUnits The units of the player.
+     * @param opponentUnits The units of the opponent.
+     */
+    public CombatEstimator(List<Unit> playerUnits, List<Unit> opponentUnits) {
+        this.playerUnits = playerUnits;
+        this.opponentUnits = opponentUnits;
+        this.playerHitPoints = getHitPoints(playerUnits);
+        this.opponentHitPoints = getHitPoints(opponentUnits);
+        estimate();
+    }
+
+    private void estimate() {
+        float[] playerDamage = getDamagePerCycle(playerUnits), opponentDamage = getDamagePerCycle(opponentUnits);
+        int[] playerDelays = getEngagementDelays(playerUnits, opponentUnits);
+        int[] opponentDelays = getEngagementDelays(opponentUnits, playerUnits);
+
+        // Damage dealt but not yet applied, a unit is only hit once the damage adds up to a whole hit point.
+        float playerPending = 0, opponentPending = 0;
+
+        for (duration = 0; duration < MAX_CYCLES; duration++) {
+            boolean playerAlive = isAlive(playerHitPoints), opponentAlive = isAlive(opponentHitPoints);
+            if (!playerAlive || !opponentAlive) {
+                if (playerAlive) winner = PLAYER_WINS;
+                else if (opponentAlive) winner = OPPONENT_WINS;
+                return;
+            }
+
+            float playerOutput = getDamageOutput(playerHitPoints, playerDamage, playerDelays, duration);
+            float opponentOutput = getDamageOutput(opponentHitPoints, opponentDamage, opponentDelays, duration);
+            if (playerOutput == 0 && opponentOutput == 0 && duration > Math.max(max(playerDelays), max(opponentDelays)))
+                return; // No side can hurt the other.
+
+            playerPending = applyDamage(opponentHitPoints, playerPending + playerOutput);
+            opponentPending = applyDamage(playerHitPoints, opponentPending + opponentOutput);
+        }
+    }
+
+    private static float[] getHitPoints(List<Unit> units) {
+        float[] hitPoints = new float[units.size()];
+        for (int i = 0; i < hitPoints.length; i++)
+            hitPoints[i] = units.get(i).getHitPoints();
+        return hitPoints;
+    }
+
+    private static float[] getDamagePerCycle(List<Unit> units) {
+        float[] damage = new float[units.size()];
+        for (int i = 0; i < damage.length; i++) {
+            Unit unit = units.get(i);
+            if (unit.getType().canAttack)
+                damage[i] = (unit.getMinDamage() + unit.getMaxDamage()) / 2.0f / Math.max(1, unit.getAttackTime());
+        }
+        return damage;
+    }
+
+    /**
+     * Returns, for each unit, the number of cycles before its closest enemy is in range. Units that cannot move never
+     * engage enemies out of range.
+     */
+    private static int[] getEngagementDelays(List<Unit> units, List<Unit> enemies) {
+        int[] delays = new int[units.size()];
+        for (int i = 0; i < delays.length; i++) {
+            Unit unit = units.get(i);
+            double closestDistance = Double.MAX_VALUE;
+            for (Unit enemy : enemies) {
+                int dx = enemy.getX() - unit.getX(), dy = enemy.getY() - unit.getY();
+                closestDistance = Math.min(closestDistance, Math.sqrt(dx * dx + dy * dy));
+            }
+            int gap = (int) Math.ceil(closestDistance - unit.getAttackRange());
+            if (gap <= 0) delays[i] = 0;
+            else if (unit.getType().canMove) delays[i] = gap * unit.getMoveTime();
+            else delays[i] = MAX_CYCLES;
+        }
+        return delays;
+    }
+
+    private static float getDamageOutput(float[] hitPoints, float[] damage, int[] delays, int cycle) {
+        float output = 0;
+        for (int i = 0; i < hitPoints.length; i++)
+            if (hitPoints[i] > 0 && delays[i] <= cycle)
+                output += damage[i];
+        return output;
+    }
+
+    /**
+     * Applies whole hit points of damage to the weakest living units, one after the other.
+     *
+     * @return The damage left, less than a hit point unless all units are destroyed.
+     */
+    private static float applyDamage(float[] hitPoints, float damage) {
+        while (damage >= 1) {
+            int target = -1;
+            for (int i = 0; i < hitPoints.length; i++)
+                if (hitPoints[i] > 0 && (target == -1 || hitPoints[i] < hitPoints[target]))
+                    target = i;
+            if (target == -1)
+                return damage;
+
+            float dealt = Math.min(hitPoints[target], (float) Math.floor(damage));
+            hitPoints[target] -= dealt;
+            damage -= dealt;
+        }
+        return damage;
+    }
+
+    private static boolean isAlive(float[] hitPoints) {
+        for (float hitPoint : hitPoints)
+            if (hitPoint > 0) return true;
+        return false;
+    }
+
+    private static int max(int[] values) {
+        int max = 0;
+        for (int value : values)
+            max = Math.max(max, value);
+        return max;
+    }
+
+    /**
+     * Applies the forecast to a game state: the destroyed units are removed and the survivors lose their hit points.
+     * The units must belong to the given game state.
+     *
+     * @param gameState The game state to modify.
+     */
+    public void applyTo(GameState gameState) {
+        PhysicalGameState physicalGameState = gameState.getPhysicalGameState();
+        applyTo(physicalGameState, playerUnits, playerHitPoints);
+        applyTo(physicalGameState, opponentUnits, opponentHitPoints);
+    }
+
+    private static void applyTo(PhysicalGameState physicalGameState, List<Unit> units, float[] hitPoints) {
+        for (int i = 0; i < hitPoints.length; i++) {
+            if (hitPoints[i] <= 0)
+                physicalGameState.removeUnit(units.get(i));
+            else
+                units.get(i).setHitPoints((int) Math.ceil(hitPoints[i]));
+        }
+    }
+
+    /**
+     * Returns the units of a group standing within a square range of any unit of the other group, i.e. the units
+     * engaged in a fight.
+     *
+     * @param units The candidate units.
+     * @param enemies The units of the other side.
+     * @param squareRange The engagement range.
+     * @return A list of units.
+     */
+    public static List<Unit> getEngagedUnits(List<Unit> units, List<Unit> enemies, int squareRange) {
+        List<Unit> engagedUnits = new ArrayList<>();
+        for (Unit unit : units)
+            for (Unit enemy : enemies)
+                if (Math.abs(enemy.getX() - unit.getX()) <= squareRange &&
+                        Math.abs(enemy.getY() - unit.getY()) <= squareRange) {
+                    engagedUnits.add(unit);
+                    break;
+                }
+        return engagedUnits;
+    }
+
+    /**
+     * Returns the forecast winner: PLAYER_WINS, OPPONENT_WINS or UNDECIDED.
+     */
+    public int getWinner() {
+        return winner;
+    }
+
+    /**
+     * Returns the number of cycles the fight is expected to last.
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    public float getPlayerHitPoints() {
+        return sum(playerHitPoints);
+    }
+
+    public float getOpponentHitPoints() {
+        return sum(opponentHitPoints);
+    }
+
+    /**
+     * Returns the share of its initial hit points each side keeps, player minus opponent. Between -1, for a loss
+     * without damage dealt, and 1.
+     */
+    public float getBalance() {
+        return share(playerUnits, playerHitPoints) - share(opponentUnits, opponentHitPoints);
+    }
+
+    private static float share(List<Unit> units, float[] hitPoints) {
+        float initial = 0;
+        for (Unit unit : units)
+            initial += unit.getHitPoints();
+        return initial == 0 ? 0 : sum(hitPoints) / initial;
+    }
+
+    private static float sum(float[] values) {
+        float sum = 0;
+        for (float value : values)
+            sum += Math.max(0, value);
+        return sum;
+    }
+}
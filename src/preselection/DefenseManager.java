@@ -4,9 +4,8 @@ import ai.abstraction.pathfinding.PathFinding;
 import rts.UnitAction;
 import rts.units.Unit;
 
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.SplittableRandom;
 
 public class DefenseManager extends HeuristicsManager {
 
@@ -16,8 +15,9 @@ public class DefenseManager extends HeuristicsManager {
 
     PathFinding pathFinder;
 
-    public DefenseManager(StateMonitor stateMonitor, PathFinding pathFinder, Unit unit, List<UnitAction> unitActions) {
-        super(stateMonitor, unit, unitActions);
+    public DefenseManager(StateMonitor stateMonitor, PathFinding pathFinder, Unit unit, List<UnitAction> unitActions,
+                          SplittableRandom random) {
+        super(stateMonitor, unit, unitActions, random);
         this.pathFinder = pathFinder;
     }
 
@@ -34,65 +34,41 @@ public class DefenseManager extends HeuristicsManager {
      * @param defenseMode The defense mode, i.e., which unit to attack.
      * @param epsilonDefenseMovement Exploration parameter for defense units.
      * @param shuffleActions Shuffle the generated actions.
-     * @return Filtered unit-actions list.
+     * @param filteredActions The list receiving the filtered unit-actions.
      */
-    public List<UnitAction> filterActions(int horizontalDistance, int verticalDistance, int radius, int maxTargets,
-                                          int defenseMode, float epsilonDefenseMovement, boolean shuffleActions) {
+    public void filterActions(int horizontalDistance, int verticalDistance, int radius, int maxTargets,
+                              int defenseMode, float epsilonDefenseMovement, boolean shuffleActions,
+                              List<UnitAction> filteredActions) {
 
-        List<UnitAction> filteredActions = new LinkedList<>(attackActions); // Attack actions are always added.
+        actions.addAllTo(ActionDecomposition.ATTACK, filteredActions); // Attack actions are always added.
 
-        if (!moveActions.isEmpty()) { // Movement is possible.
+        if (!actions.isEmpty(ActionDecomposition.MOVE)) { // Movement is possible.
 
-            if (random.nextFloat() >= epsilonDefenseMovement) { // Exploit
+            int firstMove = filteredActions.size();
+            if (random.nextDouble() >= epsilonDefenseMovement) { // Exploit
                 switch (defenseMode) {
-                    case DEFEND_BASE: // Chase opponent units inside defense perimeter.
-                        if (horizontalDistance > 0 && verticalDistance > 0) // Rectangular Defense Perimeter.
-                            // Restrict movement around the predefined perimeter around the base. Chase units inside the perimeter.
-                            filteredActions.addAll(
-                                    keepInsideRectangularPerimeterAroundBase(unit,
-                                            getMoveActionsToOpponentUnitsClosestToBase(unit, maxTargets),
-                                            horizontalDistance, verticalDistance));
-                        else if (radius > 0) // Circular Defense Perimeter.
-                            filteredActions.addAll(
-                                    keepInsideCircularPerimeterAroundBase(unit,
-                                            getMoveActionsToOpponentUnitsClosestToBase(unit, maxTargets),
-                                            radius));
-                        else // No perimeter, chase units close to the base.
-                            filteredActions.addAll(getMoveActionsToOpponentUnitsClosestToBase(unit, maxTargets));
+                    case DEFEND_BASE: // Chase opponent units close to the base.
+                        addMoveActionsToOpponentUnitsClosestToBase(unit, maxTargets, filteredActions);
                         break;
-
                     case DEFEND_SELF: // Chase the opponent units closest to self.
-                        if (horizontalDistance > 0 && verticalDistance > 0)
-                            filteredActions.addAll(
-                                    keepInsideRectangularPerimeterAroundBase(unit,
-                                            getMoveActionsToClosestOpponentUnits(unit, maxTargets),
-                                            horizontalDistance, verticalDistance));
-                        else if (radius > 0)
-                            filteredActions.addAll(
-                                    keepInsideCircularPerimeterAroundBase(unit,
-                                            getMoveActionsToClosestOpponentUnits(unit, maxTargets),
-                                            radius));
-                        else // No perimeter, chase units close to self.
-                            filteredActions.addAll(getMoveActionsToClosestOpponentUnits(unit, maxTargets));
+                        addMoveActionsToClosestOpponentUnits(unit, maxTargets, filteredActions);
                         break;
                 }
             }
-            else { // Explore all directions. Move aimlessly inside perimeter.
-                if (horizontalDistance > 0 && verticalDistance > 0) // Rectangular Defense Perimeter
-                    filteredActions.addAll(
-                            keepInsideRectangularPerimeterAroundBase(unit, moveActions, horizontalDistance, verticalDistance));
-                else if (radius > 0) // Circular Defense Perimeter
-                    filteredActions.addAll(
-                            keepInsideCircularPerimeterAroundBase(unit, moveActions, radius));
-                else
-                    filteredActions.addAll(moveActions);
-            }
+            else // Explore all directions. Move aimlessly inside perimeter.
+                actions.addAllTo(ActionDecomposition.MOVE, filteredActions);
+
+            // Restrict the added moves to the predefined perimeter around the base, if any.
+            if (horizontalDistance > 0 && verticalDistance > 0) // Rectangular Defense Perimeter.
+                keepInsideRectangularPerimeterAroundBase(unit, filteredActions, firstMove,
+                        horizontalDistance, verticalDistance);
+            else if (radius > 0) // Circular Defense Perimeter.
+                keepInsideCircularPerimeterAroundBase(unit, filteredActions, firstMove, radius);
         }
 
-        if (shuffleActions) Collections.shuffle(filteredActions);
+        if (shuffleActions) shuffle(filteredActions);
 
         filteredActions.add(waitAction);
-        return filteredActions;
     }
 
     /**
@@ -121,90 +97,88 @@ public class DefenseManager extends HeuristicsManager {
 
     /**
      * Restricts the movements of the given unit to a predefined vertical and horizontal distance away from own base.
+     * The moves going beyond the perimeter are removed in place.
      *
      * @param unit The unit in question.
-     * @param moveActions The possible move actions.
+     * @param moveActions The list holding the move actions to restrict.
+     * @param firstMove The index of the first move action in the list, the actions before it are left untouched.
      * @param horizontalDistance The horizontal distance from base.
      * @param verticalDistance The vertical distance from base.
-     * @return A list of move actions, without the moves going beyond the perimeter around the base defined by the
-     * vertical and horizontal distances.
      */
-    private List<UnitAction> keepInsideRectangularPerimeterAroundBase(Unit unit, List<UnitAction> moveActions,
-                                                                      int horizontalDistance, int verticalDistance) {
+    private void keepInsideRectangularPerimeterAroundBase(Unit unit, List<UnitAction> moveActions, int firstMove,
+                                                          int horizontalDistance, int verticalDistance) {
 
         if (stateMonitor.getPlayerBases().isEmpty())
-            return moveActions;
+            return;
 
         Unit base = stateMonitor.getPlayerBases().get(0);
 
-        List<UnitAction> restrictedMoveActions = new LinkedList<>();
-
-        for (UnitAction moveAction : moveActions) {
+        int kept = firstMove;
+        for (int index = firstMove; index < moveActions.size(); index++) {
+            UnitAction moveAction = moveActions.get(index);
+            boolean inside = false;
             switch (moveAction.getDirection()) {
                 case UnitAction.DIRECTION_UP:
-                    if (unit.getY() - 1 >= base.getY() - verticalDistance)
-                        restrictedMoveActions.add(moveAction);
+                    inside = unit.getY() - 1 >= base.getY() - verticalDistance;
                     break;
                 case UnitAction.DIRECTION_RIGHT:
-                    if (unit.getX() + 1 <= base.getX() + horizontalDistance)
-                        restrictedMoveActions.add(moveAction);
+                    inside = unit.getX() + 1 <= base.getX() + horizontalDistance;
                     break;
                 case UnitAction.DIRECTION_DOWN:
-                    if (unit.getY() + 1 <= base.getY() + verticalDistance)
-                        restrictedMoveActions.add(moveAction);
+                    inside = unit.getY() + 1 <= base.getY() + verticalDistance;
                     break;
                 case UnitAction.DIRECTION_LEFT:
-                    if (unit.getX() - 1 >= base.getX() - horizontalDistance)
-                        restrictedMoveActions.add(moveAction);
+                    inside = unit.getX() - 1 >= base.getX() - horizontalDistance;
                     break;
             }
+            if (inside)
+                moveActions.set(kept++, moveAction);
         }
-        return restrictedMoveActions;
+        moveActions.subList(kept, moveActions.size()).clear();
     }
 
     /**
      * Similar to the previous method, but restricts movement to a circular area around base, defined by a given radius.
      *
      * @param unit The unit in question.
-     * @param moveActions The possible move actions.
+     * @param moveActions The list holding the move actions to restrict.
+     * @param firstMove The index of the first move action in the list, the actions before it are left untouched.
      * @param radius The radius of the perimeter.
-     * @return A list of move unit actions, not going beyond the defense radius.
      */
-    private List<UnitAction> keepInsideCircularPerimeterAroundBase(Unit unit, List<UnitAction> moveActions, double radius) {
+    private void keepInsideCircularPerimeterAroundBase(Unit unit, List<UnitAction> moveActions, int firstMove,
+                                                       double radius) {
 
         if (stateMonitor.getPlayerBases().isEmpty())
-            return moveActions;
+            return;
 
         Unit base = stateMonitor.getPlayerBases().get(0);
 
-        List<UnitAction> restrictedMoveActions = new LinkedList<>();
-
-        for (UnitAction moveAction : moveActions) {
+        int kept = firstMove;
+        for (int index = firstMove; index < moveActions.size(); index++) {
+            UnitAction moveAction = moveActions.get(index);
+            boolean inside = false;
             switch (moveAction.getDirection()) {
                 case UnitAction.DIRECTION_UP:
-                    if (euclideanDistanceNoSqrt(
-                            base.getX(), base.getY(), unit.getX(), unit.getY() - 1) <= radius * radius)
-                        restrictedMoveActions.add(moveAction);
+                    inside = euclideanDistanceNoSqrt(
+                            base.getX(), base.getY(), unit.getX(), unit.getY() - 1) <= radius * radius;
                     break;
                 case UnitAction.DIRECTION_RIGHT:
-                    if (euclideanDistanceNoSqrt(
-                            base.getX(), base.getY(), unit.getX() + 1, unit.getY()) <= radius * radius)
-                        restrictedMoveActions.add(moveAction);
+                    inside = euclideanDistanceNoSqrt(
+                            base.getX(), base.getY(), unit.getX() + 1, unit.getY()) <= radius * radius;
                     break;
                 case UnitAction.DIRECTION_DOWN:
-                    if (euclideanDistanceNoSqrt(
-                            base.getX(), base.getY(), unit.getX(), unit.getY() + 1) <= radius * radius)
-                        restrictedMoveActions.add(moveAction);
+                    inside = euclideanDistanceNoSqrt(
+                            base.getX(), base.getY(), unit.getX(), unit.getY() + 1) <= radius * radius;
                     break;
                 case UnitAction.DIRECTION_LEFT:
-                    if (euclideanDistanceNoSqrt(
-                            base.getX(), base.getY(), unit.getX() - 1, unit.getY()) <= radius * radius)
-                        restrictedMoveActions.add(moveAction);
+                    inside = euclideanDistanceNoSqrt(
+                            base.getX(), base.getY(), unit.getX() - 1, unit.getY()) <= radius * radius;
                     break;
             }
+            if (inside)
+                moveActions.set(kept++, moveAction);
         }
-
-        return restrictedMoveActions;
+        moveActions.subList(kept, moveActions.size()).clear();
     }
 
     /**
@@ -220,33 +194,34 @@ public class DefenseManager extends HeuristicsManager {
     }
 
     /**
-     * Returns a list of UnitAction.TYPE_MOVE unit actions, each targeting an opponent unit. The opponent units are chosen
-     * based on their proximity to the current unit.
+     * Appends UnitAction.TYPE_MOVE unit actions, each targeting an opponent unit, to the output list. The opponent units
+     * are chosen based on their proximity to the current unit.
      *
      * @param unit The unit in question.
      * @param maxTargets The number of close opponent units to consider.
-     * @return UnitAction.TYPE_MOVE list.
+     * @param output The list receiving the move unit-actions.
      */
-    private List<UnitAction> getMoveActionsToClosestOpponentUnits(Unit unit, int maxTargets) {
-        return getMoveActionsToTargetsInRange(unit,
-                stateMonitor.getOpponentUnitsClosestTo(unit, maxTargets), pathFinder);
+    private void addMoveActionsToClosestOpponentUnits(Unit unit, int maxTargets, List<UnitAction> output) {
+        addMoveActionsToTargetsInRange(unit,
+                stateMonitor.getOpponentUnitsClosestTo(unit, maxTargets), pathFinder, output);
     }
 
     /**
-     * Returns a list of move unit-actions, targeting opponent units close to own base, if there is a base. If no base
-     * exits, target units close to self.
+     * Appends move unit-actions, targeting opponent units close to own base, if there is a base, to the output list.
+     * If no base exits, target units close to self.
      *
      * @param unit The unit in question.
      * @param maxTargets The maximum number of targets.
-     * @return A list of move unit-actions.
+     * @param output The list receiving the move unit-actions.
      */
-    private List<UnitAction> getMoveActionsToOpponentUnitsClosestToBase(Unit unit, int maxTargets) {
+    private void addMoveActionsToOpponentUnitsClosestToBase(Unit unit, int maxTargets, List<UnitAction> output) {
         if (!stateMonitor.getPlayerBases().isEmpty())
-            return getMoveActionsToTargetsInRange(unit,
-                    stateMonitor.getOpponentUnitsClosestTo(stateMonitor.getPlayerBases().get(0), maxTargets), pathFinder);
+            addMoveActionsToTargetsInRange(unit,
+                    stateMonitor.getOpponentUnitsClosestTo(stateMonitor.getPlayerBases().get(0), maxTargets), pathFinder,
+                    output);
         else
-            return getMoveActionsToTargetsInRange(unit,
-                    stateMonitor.getOpponentUnitsClosestTo(unit, maxTargets), pathFinder);
+            addMoveActionsToTargetsInRange(unit,
+                    stateMonitor.getOpponentUnitsClosestTo(unit, maxTargets), pathFinder, output);
     }
 
 }
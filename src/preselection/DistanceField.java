@@ -0,0 +1,139 @@
+package preselection;
+
+import rts.GameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A breadth-first distance map towards a target. Every cell holds the number of moves needed to reach a cell within
+ * range of the target (squared euclidean distance, as microRTS does), going around blocked cells. The map is computed
+ * once, backwards from the target, after which any unit can find its next step by descending the distance gradient.
+ */
+public class DistanceField {
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final int width;
+    private final int height;
+    private final int[] distances; // Indexed by x + y * width.
+    private final int targetX;
+    private final int targetY;
+    private final int range;
+
+    /**
+     * Computes the distance field towards the given target.
+     *
+     * @param width The map width.
+     * @param height The map height.
+     * @param blocked The cells that cannot be crossed, indexed by x + y * width.
+     * @param targetX The X coordinate of the target.
+     * @param targetY The Y coordinate of the target.
+     * @param range The range around the target where the distance is 0.
+     */
+    public DistanceField(int width, int height, boolean[] blocked, int targetX, int targetY, int range) {
+        this.width = width;
+        this.height = height;
+        this.distances = new int[width * height];
+        this.targetX = targetX;
+        this.targetY = targetY;
+        this.range = range;
+        Arrays.fill(distances, UNREACHABLE);
+
+        int[] queue = new int[width * height];
+        int head = 0, tail = 0;
+
+        // Every free cell within range of the target is a source.
+        for (int y = Math.max(0, targetY - range); y <= Math.min(height - 1, targetY + range); y++)
+            for (int x = Math.max(0, targetX - range); x <= Math.min(width - 1, targetX + range); x++) {
+                int position = x + y * width;
+                if (!blocked[position] &&
+                        (x - targetX) * (x - targetX) + (y - targetY) * (y - targetY) <= range * range) {
+                    distances[position] = 0;
+                    queue[tail++] = position;
+                }
+            }
+
+        while (head < tail) {
+            int position = queue[head++];
+            int x = position % width, y = position / width;
+            for (int direction = UnitAction.DIRECTION_UP; direction <= UnitAction.DIRECTION_LEFT; direction++) {
+                int neighbourX = x + UnitAction.DIRECTION_OFFSET_X[direction];
+                int neighbourY = y + UnitAction.DIRECTION_OFFSET_Y[direction];
+                if (neighbourX < 0 || neighbourY < 0 || neighbourX >= width || neighbourY >= height) continue;
+                int neighbour = neighbourX + neighbourY * width;
+                if (!blocked[neighbour] && distances[neighbour] == UNREACHABLE) {
+                    distances[neighbour] = distances[position] + 1;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the distance from the given cell to the target's range.
+     *
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     * @return The number of moves, UNREACHABLE if the target cannot be reached or the cell is outside the map.
+     */
+    public int getDistance(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return UNREACHABLE;
+        return distances[x + y * width];
+    }
+
+    /**
+     * Tells whether the given cell is within range of the target, whether it is blocked or not.
+     */
+    public boolean isInRange(int x, int y) {
+        return (x - targetX) * (x - targetX) + (y - targetY) * (y - targetY) <= range * range;
+    }
+
+    /**
+     * Returns the distance the given cell would have if it were free. The cell of a moving unit is always blocked, its
+     * distance is one more than its closest neighbour's.
+     */
+    private int getUnblockedDistance(int x, int y) {
+        if (isInRange(x, y)) return 0;
+        int distance = getDistance(x, y);
+        if (distance != UNREACHABLE) return distance;
+        for (int direction = UnitAction.DIRECTION_UP; direction <= UnitAction.DIRECTION_LEFT; direction++) {
+            int neighbourDistance = getDistance(x + UnitAction.DIRECTION_OFFSET_X[direction],
+                    y + UnitAction.DIRECTION_OFFSET_Y[direction]);
+            if (neighbourDistance != UNREACHABLE)
+                distance = Math.min(distance, neighbourDistance + 1);
+        }
+        return distance;
+    }
+
+    /**
+     * Returns the direction of the currently free neighbour that gets closest to the target. Only neighbours closer
+     * than the given cell, as if it were free, are considered, ties are broken by the direction order.
+     *
+     * @param x The X coordinate of the moving unit.
+     * @param y The Y coordinate of the moving unit.
+     * @param gameState The game state, used to check which cells are free.
+     * @param resourceUsage The positions already reserved by other units, may be null.
+     * @return A UnitAction direction, DIRECTION_NONE if the cell is within range or no free neighbour is closer to the
+     * target.
+     */
+    public int getDescentDirection(int x, int y, GameState gameState, ResourceUsage resourceUsage) {
+        int bestDirection = UnitAction.DIRECTION_NONE;
+        int bestDistance = getUnblockedDistance(x, y);
+        List<Integer> usedPositions = resourceUsage != null ? resourceUsage.getPositionsUsed() : null;
+
+        for (int direction = UnitAction.DIRECTION_UP; direction <= UnitAction.DIRECTION_LEFT; direction++) {
+            int neighbourX = x + UnitAction.DIRECTION_OFFSET_X[direction];
+            int neighbourY = y + UnitAction.DIRECTION_OFFSET_Y[direction];
+            int distance = getDistance(neighbourX, neighbourY);
+            if (distance < bestDistance && gameState.free(neighbourX, neighbourY) &&
+                    (usedPositions == null || !usedPositions.contains(neighbourX + neighbourY * width))) {
+                bestDistance = distance;
+                bestDirection = direction;
+            }
+        }
+        return bestDirection;
+    }
+}
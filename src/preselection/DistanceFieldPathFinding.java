@@ -0,0 +1,149 @@
+package preselection;
+
+import ai.abstraction.pathfinding.AStarPathFinding;
+import ai.abstraction.pathfinding.PathFinding;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.units.Unit;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A path finder that reads moves from precomputed distance fields instead of searching for every query. Distance
+ * fields are computed over the static layout of the map only (walls, bases, barracks and resource deposits), which
+ * makes them reusable across units, nodes and frames. They are dropped only when a structure appears or disappears.
+ * When the gradient cannot be followed, because mobile units block the way, the query falls back to A*.
+ * This suits targets that rarely move, such as the resource deposits and bases targeted by harvesters.
+ */
+public class DistanceFieldPathFinding extends PathFinding {
+
+    private static final int MAX_LAYOUTS = 8; // Number of structure layouts kept, search branches may differ in layout.
+
+    // A* keeps search buffers, one instance per thread.
+    private final ThreadLocal<PathFinding> fallbackPathFinders = ThreadLocal.withInitial(AStarPathFinding::new);
+
+    // Distance fields, by structure layout signature, then by target position and range.
+    private final Map<Long, Map<Long, DistanceField>> fieldsByLayout =
+            new LinkedHashMap<Long, Map<Long, DistanceField>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Map<Long, DistanceField>> eldest) {
+                    return size() > MAX_LAYOUTS;
+                }
+            };
+
+    @Override
+    public boolean pathExists(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        return fallbackPathFinders.get().pathExists(start, targetpos, gs, ru);
+    }
+
+    @Override
+    public boolean pathToPositionInRangeExists(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        return fallbackPathFinders.get().pathToPositionInRangeExists(start, targetpos, range, gs, ru);
+    }
+
+    @Override
+    public UnitAction findPath(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        return findPathToPositionInRange(start, targetpos, 0, gs, ru);
+    }
+
+    @Override
+    public UnitAction findPathToAdjacentPosition(Unit start, int targetpos, GameState gs, ResourceUsage ru) {
+        return findPathToPositionInRange(start, targetpos, 1, gs, ru);
+    }
+
+    /**
+     * Returns the move leading down the distance gradient towards the target. Falls back to A* if no free neighbour
+     * is closer to the target, or if the unit is already in range.
+     */
+    @Override
+    public UnitAction findPathToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        DistanceField field = getDistanceField(targetpos, range, gs);
+        int direction = field.getDescentDirection(start.getX(), start.getY(), gs, ru);
+        if (direction != UnitAction.DIRECTION_NONE)
+            return new UnitAction(UnitAction.TYPE_MOVE, direction);
+        return fallbackPathFinders.get().findPathToPositionInRange(start, targetpos, range, gs, ru);
+    }
+
+    @Override
+    public int findDistToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru) {
+        return fallbackPathFinders.get().findDistToPositionInRange(start, targetpos, range, gs, ru);
+    }
+
+    /**
+     * Returns the distance field towards the given target for the current structure layout, computing it if needed.
+     *
+     * @param targetPosition The target position (x + y * width).
+     * @param range The range around the target.
+     * @param gameState The current game state.
+     * @return The distance field.
+     */
+    private synchronized DistanceField getDistanceField(int targetPosition, int range, GameState gameState) {
+        PhysicalGameState physicalGameState = gameState.getPhysicalGameState();
+        int width = physicalGameState.getWidth(), height = physicalGameState.getHeight();
+
+        long layout = getLayoutSignature(physicalGameState);
+        Map<Long, DistanceField> fields = fieldsByLayout.get(layout);
+        if (fields == null) {
+            fields = new HashMap<>();
+            fieldsByLayout.put(layout, fields);
+        }
+
+        long key = ((long) targetPosition << 32) | (range & 0xFFFFFFFFL);
+        DistanceField field = fields.get(key);
+        if (field == null) {
+            field = new DistanceField(width, height, getStaticObstacles(physicalGameState),
+                    targetPosition % width, targetPosition / width, range);
+            fields.put(key, field);
+        }
+        return field;
+    }
+
+    /**
+     * Returns a signature of the map's static layout: its size and walls, and the identity and position of every unit
+     * that cannot move. The signature does not depend on the order of the units.
+     */
+    private long getLayoutSignature(PhysicalGameState physicalGameState) {
+        long signature = TerrainHash.of(physicalGameState);
+        for (Unit unit : physicalGameState.getUnits())
+            if (!unit.getType().canMove) {
+                long hash = (unit.getID() * 31 + unit.getX()) * 31 + unit.getY();
+                hash *= 0x9E3779B97F4A7C15L;
+                signature += hash ^ (hash >>> 29);
+            }
+        return signature;
+    }
+
+    /**
+     * Marks the walls and the cells occupied by units that cannot move.
+     */
+    private boolean[] getStaticObstacles(PhysicalGameState physicalGameState) {
+        int width = physicalGameState.getWidth(), height = physicalGameState.getHeight();
+        boolean[] blocked = new boolean[width * height];
+
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                blocked[x + y * width] = physicalGameState.getTerrain(x, y) == PhysicalGameState.TERRAIN_WALL;
+
+        for (Unit unit : physicalGameState.getUnits())
+            if (!unit.getType().canMove)
+                blocked[unit.getX() + unit.getY() * width] = true;
+
+        return blocked;
+    }
+
+    /**
+     * Drops all the distance fields.
+     */
+    public synchronized void clear() {
+        fieldsByLayout.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "DistanceFieldPathFinding";
+    }
+}
@@ -0,0 +1,132 @@
+package preselection;
+
+import rts.UnitAction;
+import util.Pair;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of the unit-action lists produced by the heuristics managers. A unit whose surroundings did not
+ * change gets the same filtered actions in every node of the search tree, the cache returns them without running the
+ * managers again. Entries are keyed by a 128 bits signature of the unit's state and local region, built by the action
+ * generator. Only outputs that do not depend on random choices are stored. The least recently used entries are
+ * evicted first. The signature is an approximation, the managers' path finding and targets may depend on units out
+ * of the local region, hence the cache is disabled by default (see PreSelectionParameters.cacheFilteredActions) and
+ * emptied at the start of every game.
+ */
+public class FilteredActionsCache {
+
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private final Map<Signature, Pair<List<UnitAction>, float[]>> cache; // Actions and their priors (may be null).
+    private long hits = 0;
+    private long misses = 0;
+
+    public FilteredActionsCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The maximum number of cached action lists.
+     */
+    public FilteredActionsCache(int capacity) {
+        // In insertion order, recency is updated explicitly, read-only look-ups are needed while units are filtered in
+        // parallel (see CacheJournal).
+        this.cache = new LinkedHashMap<Signature, Pair<List<UnitAction>, float[]>>(capacity, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Signature, Pair<List<UnitAction>, float[]>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached action list and priors matching the signature, null if none are cached. The returned list and
+     * priors are shared and must not be modified.
+     */
+    synchronized Pair<List<UnitAction>, float[]> get(Signature signature) {
+        Pair<List<UnitAction>, float[]> actions = cache.get(signature);
+        if (actions == null) misses++;
+        else {
+            hits++;
+            CacheJournal.apply(() -> touch(signature));
+        }
+        return actions;
+    }
+
+    void put(Signature signature, List<UnitAction> actions, float[] priors) {
+        Pair<List<UnitAction>, float[]> entry = new Pair<>(Collections.unmodifiableList(actions), priors);
+        CacheJournal.apply(() -> put(signature, entry));
+    }
+
+    private synchronized void put(Signature signature, Pair<List<UnitAction>, float[]> entry) {
+        cache.put(signature, entry);
+    }
+
+    /**
+     * Moves the entry to the most recently used end of the cache.
+     */
+    private synchronized void touch(Signature signature) {
+        Pair<List<UnitAction>, float[]> entry = cache.remove(signature);
+        if (entry != null)
+            cache.put(signature, entry);
+    }
+
+    /**
+     * Empties the cache and resets the counters.
+     */
+    public synchronized void clear() {
+        cache.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * A 128 bits signature, accumulated value by value over two independent hash lanes.
+     */
+    static final class Signature {
+
+        private long high = 0x6A09E667F3BCC908L;
+        private long low = 0xBB67AE8584CAA73BL;
+
+        Signature() {
+        }
+
+        Signature(Signature base) {
+            this.high = base.high;
+            this.low = base.low;
+        }
+
+        Signature add(long value) {
+            high = (high ^ value) * 0x9E3779B97F4A7C15L;
+            high ^= high >>> 29;
+            low = (low + value) * 0xBF58476D1CE4E5B9L;
+            low ^= low >>> 31;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof Signature)) return false;
+            Signature signature = (Signature) other;
+            return high == signature.high && low == signature.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (high ^ (high >>> 32));
+        }
+    }
+}
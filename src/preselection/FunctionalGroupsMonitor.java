@@ -2,6 +2,7 @@ package preselection;
 
 import rts.units.Unit;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -19,10 +20,16 @@ public class FunctionalGroupsMonitor {
 
     StateMonitor stateMonitor;
 
-    // The functional groups.
+    // The role of each unit, indexed by unit ID. This is the reference for group membership.
+    UnitRoleTable roles;
+    // The roles as assigned by the constructor, before any stance switch. These are the roles kept across frames.
+    UnitRoleTable assignedRoles;
+
+    // The functional groups. The defense and offense groups are rebuilt from the role table after stance switches.
     List<Unit> harvestUnits = new LinkedList<>();
-    List<Unit> defenseUnits = new LinkedList<>();
-    List<Unit> offenseUnits = new LinkedList<>();
+    List<Unit> defenseUnits = new ArrayList<>();
+    List<Unit> offenseUnits = new ArrayList<>();
+    boolean stanceGroupsOutdated = false;
 
     // The functional unit-type groups.
     List<Unit> defenseWorkers = new LinkedList<>();
@@ -39,8 +46,29 @@ public class FunctionalGroupsMonitor {
     public FunctionalGroupsMonitor(StateMonitor stateMonitor, int priority, int maxHarvesters,
                                    int maxDefenseWorkers, int maxDefenseLights, int maxDefenseRanged, int maxDefenseHeavies,
                                    int maxOffenseWorkers, int maxOffenseLights, int maxOffenseRanged, int maxOffenseHeavies) {
+        this(stateMonitor, null, priority, maxHarvesters,
+                maxDefenseWorkers, maxDefenseLights, maxDefenseRanged, maxDefenseHeavies,
+                maxOffenseWorkers, maxOffenseLights, maxOffenseRanged, maxOffenseHeavies);
+    }
+
+    /**
+     * Creates the functional groups, starting from the roles kept in the given registry. Units known to the registry
+     * keep their previous role, the remaining units are assigned under the limits.
+     *
+     * @param stateMonitor The monitored game state.
+     * @param registry The roles registry, if null all units are assigned from scratch.
+     */
+    public FunctionalGroupsMonitor(StateMonitor stateMonitor, UnitRoleRegistry registry, int priority, int maxHarvesters,
+                                   int maxDefenseWorkers, int maxDefenseLights, int maxDefenseRanged, int maxDefenseHeavies,
+                                   int maxOffenseWorkers, int maxOffenseLights, int maxOffenseRanged, int maxOffenseHeavies) {
 
         this.stateMonitor = stateMonitor;
+        this.roles = new UnitRoleTable(stateMonitor.getAllPlayerUnits().size());
+
+        if (registry != null)
+            inheritRoles(registry, maxHarvesters,
+                    maxDefenseWorkers, maxDefenseLights, maxDefenseRanged, maxDefenseHeavies,
+                    maxOffenseWorkers, maxOffenseLights, maxOffenseRanged, maxOffenseHeavies);
 
         assignHarvestUnits(maxHarvesters);
         switch (priority) {
@@ -54,6 +82,50 @@ public class FunctionalGroupsMonitor {
                 break;
         }
 
+        assignedRoles = new UnitRoleTable(roles);
+    }
+
+    /**
+     * Puts the units known to the registry back in the group they previously belonged to, under the current limits.
+     * Unknown units (newly trained ones) and units over the limit of their group are left unassigned.
+     * @param registry The roles registry.
+     */
+    private void inheritRoles(UnitRoleRegistry registry, int maxHarvesters,
+                              int maxDefenseWorkers, int maxDefenseLights, int maxDefenseRanged, int maxDefenseHeavies,
+                              int maxOffenseWorkers, int maxOffenseLights, int maxOffenseRanged, int maxOffenseHeavies) {
+        for (Unit worker : stateMonitor.getPlayerWorkers())
+            inheritRole(registry, worker, maxHarvesters, defenseWorkers, maxDefenseWorkers, offenseWorkers, maxOffenseWorkers);
+        for (Unit light : stateMonitor.getPlayerLights())
+            inheritRole(registry, light, 0, defenseLights, maxDefenseLights, offenseLights, maxOffenseLights);
+        for (Unit ranged : stateMonitor.getPlayerRanged())
+            inheritRole(registry, ranged, 0, defenseRanged, maxDefenseRanged, offenseRanged, maxOffenseRanged);
+        for (Unit heavy : stateMonitor.getPlayerHeavies())
+            inheritRole(registry, heavy, 0, defenseHeavies, maxDefenseHeavies, offenseHeavies, maxOffenseHeavies);
+    }
+
+    private void inheritRole(UnitRoleRegistry registry, Unit unit, int maxHarvesters,
+                             List<Unit> defenseGroup, int maxDefense, List<Unit> offenseGroup, int maxOffense) {
+        byte role = registry.getRole(unit);
+        switch (role) {
+            case UnitRoleTable.HARVEST_ROLE:
+                if (isUnderLimit(harvestUnits, maxHarvesters)) harvestUnits.add(unit);
+                else role = UnitRoleTable.NO_ROLE;
+                break;
+            case UnitRoleTable.DEFENSE_ROLE:
+                if (isUnderLimit(defenseGroup, maxDefense)) defenseGroup.add(unit);
+                else role = UnitRoleTable.NO_ROLE;
+                break;
+            case UnitRoleTable.OFFENSE_ROLE:
+                if (isUnderLimit(offenseGroup, maxOffense)) offenseGroup.add(unit);
+                else role = UnitRoleTable.NO_ROLE;
+                break;
+        }
+        if (role != UnitRoleTable.NO_ROLE)
+            roles.setRole(unit, role);
+    }
+
+    private static boolean isUnderLimit(List<Unit> group, int maxUnits) {
+        return maxUnits == -1 || group.size() < maxUnits;
     }
 
     /**
@@ -62,8 +134,10 @@ public class FunctionalGroupsMonitor {
      */
     public void assignHarvestUnits(int maxHarvesters) {
         for (Unit worker : stateMonitor.getPlayerWorkers()) {
-            if (maxHarvesters == -1 || harvestUnits.size() < maxHarvesters) {
+            if ((maxHarvesters == -1 || harvestUnits.size() < maxHarvesters) &&
+                    roles.getRole(worker) == UnitRoleTable.NO_ROLE) {
                 harvestUnits.add(worker);
+                roles.setRole(worker, UnitRoleTable.HARVEST_ROLE);
             }
         }
     }
@@ -118,8 +192,10 @@ public class FunctionalGroupsMonitor {
         for (Unit unit : units)
             if ((maxUnits == -1 || unitGroup.size() < maxUnits) &&
                     // The unit should not belong to the offense or harvest group.
-                    !offenseUnits.contains(unit) && !harvestUnits.contains(unit))
+                    roles.getRole(unit) == UnitRoleTable.NO_ROLE) {
                 unitGroup.add(unit);
+                roles.setRole(unit, UnitRoleTable.DEFENSE_ROLE);
+            }
     }
 
     /**
@@ -132,8 +208,10 @@ public class FunctionalGroupsMonitor {
         for (Unit unit : units)
             if ((maxUnits == -1 || unitGroup.size() < maxUnits) &&
                     // The unit should not belong to the defense or harvest group.
-                    !defenseUnits.contains(unit) && !harvestUnits.contains(unit))
+                    roles.getRole(unit) == UnitRoleTable.NO_ROLE) {
                 unitGroup.add(unit);
+                roles.setRole(unit, UnitRoleTable.OFFENSE_ROLE);
+            }
     }
 
     /**
@@ -143,7 +221,7 @@ public class FunctionalGroupsMonitor {
     public void fromDefenseToOffenseUnit(Unit unit) {
 
         // Switch to offense
-        if (defenseUnits.contains(unit)) { // A defense unit.
+        if (roles.getRole(unit) == UnitRoleTable.DEFENSE_ROLE) { // A defense unit.
             // Switch type sub group.
             /*switch (unit.getType().name) {
                 case "Worker":
@@ -164,15 +242,15 @@ public class FunctionalGroupsMonitor {
                     break;
             }*/
             // Switch group
-            defenseUnits.remove(unit);
-            offenseUnits.add(unit);
+            roles.setRole(unit, UnitRoleTable.OFFENSE_ROLE);
+            stanceGroupsOutdated = true;
         }
 
     }
 
     public void fromOffenseToDefenseUnit(Unit unit) {
         // Switch to defense.
-        if (offenseUnits.contains(unit)) {
+        if (roles.getRole(unit) == UnitRoleTable.OFFENSE_ROLE) {
 
             /*switch (unit.getType().name) {
                 case "Worker":
@@ -193,8 +271,8 @@ public class FunctionalGroupsMonitor {
                     break;
             }*/
 
-            offenseUnits.remove(unit);
-            defenseUnits.add(unit);
+            roles.setRole(unit, UnitRoleTable.DEFENSE_ROLE);
+            stanceGroupsOutdated = true;
         }
     }
 
@@ -202,8 +280,8 @@ public class FunctionalGroupsMonitor {
      * Switch all defense units to offense.
      */
     public void fromDefenseToOffenseAll() {
-        while (defenseUnits.size() > 0)
-            fromDefenseToOffenseUnit(defenseUnits.get(0));
+        for (Unit unit : getDefenseUnits())
+            fromDefenseToOffenseUnit(unit);
     }
 
     public void fromDefenseToOffense(int count) {
@@ -213,21 +291,77 @@ public class FunctionalGroupsMonitor {
             return;
         }
 
-        while (count > 0 && !defenseUnits.isEmpty()) {
-            fromDefenseToOffenseUnit(defenseUnits.get(0));
+        for (Unit unit : getDefenseUnits()) {
+            if (count == 0) break;
+            fromDefenseToOffenseUnit(unit);
             count--;
         }
     }
 
+    /**
+     * Rebuilds the defense and offense groups from the role table, if a stance switch happened since the last
+     * rebuild. Units are listed by type, in the same order they were initially assigned.
+     */
+    private void updateStanceGroups() {
+        if (!stanceGroupsOutdated) return;
+
+        List<Unit> updatedDefenseUnits = new ArrayList<>(roles.getCount(UnitRoleTable.DEFENSE_ROLE));
+        List<Unit> updatedOffenseUnits = new ArrayList<>(roles.getCount(UnitRoleTable.OFFENSE_ROLE));
+
+        addUnitsByRole(stateMonitor.getPlayerWorkers(), updatedDefenseUnits, updatedOffenseUnits);
+        addUnitsByRole(stateMonitor.getPlayerLights(), updatedDefenseUnits, updatedOffenseUnits);
+        addUnitsByRole(stateMonitor.getPlayerRanged(), updatedDefenseUnits, updatedOffenseUnits);
+        addUnitsByRole(stateMonitor.getPlayerHeavies(), updatedDefenseUnits, updatedOffenseUnits);
+
+        defenseUnits = updatedDefenseUnits;
+        offenseUnits = updatedOffenseUnits;
+        stanceGroupsOutdated = false;
+    }
+
+    private void addUnitsByRole(List<Unit> units, List<Unit> defenseGroup, List<Unit> offenseGroup) {
+        for (Unit unit : units)
+            switch (roles.getRole(unit)) {
+                case UnitRoleTable.DEFENSE_ROLE: defenseGroup.add(unit); break;
+                case UnitRoleTable.OFFENSE_ROLE: offenseGroup.add(unit); break;
+            }
+    }
+
+    public boolean isHarvestUnit(Unit unit) {
+        return roles.getRole(unit) == UnitRoleTable.HARVEST_ROLE;
+    }
+
+    public boolean isDefenseUnit(Unit unit) {
+        return roles.getRole(unit) == UnitRoleTable.DEFENSE_ROLE;
+    }
+
+    public boolean isOffenseUnit(Unit unit) {
+        return roles.getRole(unit) == UnitRoleTable.OFFENSE_ROLE;
+    }
+
+    public byte getRole(Unit unit) {
+        return roles.getRole(unit);
+    }
+
+    /**
+     * Returns the role the unit was assigned when the groups were created, ignoring later stance switches.
+     * @param unit The unit in question.
+     * @return The assigned role, UnitRoleTable.NO_ROLE if the unit was not assigned.
+     */
+    public byte getAssignedRole(Unit unit) {
+        return assignedRoles.getRole(unit);
+    }
+
     public List<Unit> getHarvestUnits() {
         return harvestUnits;
     }
 
     public List<Unit> getOffenseUnits() {
+        updateStanceGroups();
         return offenseUnits;
     }
 
     public List<Unit> getDefenseUnits() {
+        updateStanceGroups();
         return defenseUnits;
     }
 
@@ -4,9 +4,8 @@ import ai.abstraction.pathfinding.PathFinding;
 import rts.UnitAction;
 import rts.units.Unit;
 
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.SplittableRandom;
 
 public class HarvestManager extends HeuristicsManager {
 
@@ -16,8 +15,9 @@ public class HarvestManager extends HeuristicsManager {
 
     PathFinding pathFinder;
 
-    public HarvestManager(StateMonitor stateMonitor, PathFinding pathFinder, Unit unit, List<UnitAction> unitActions) {
-        super(stateMonitor, unit, unitActions);
+    public HarvestManager(StateMonitor stateMonitor, PathFinding pathFinder, Unit unit, List<UnitAction> unitActions,
+                          SplittableRandom random) {
+        super(stateMonitor, unit, unitActions, random);
         this.pathFinder = pathFinder;
     }
 
@@ -32,94 +32,90 @@ public class HarvestManager extends HeuristicsManager {
      * @param maxProduceActionsChosen The maximum number of production actions to chose.
      * @param epsilonHarvestMovement
      * @param buildingLocation
-     * @return Filtered unit-actions list.
+     * @param filteredActions The list receiving the filtered unit-actions.
      */
-    public List<UnitAction> filterActions(int maxBases, int maxBarracks, int buildingLocation, int maxProduceActionsChosen,
-                                          int scanRadius, int maxOccupiedCells,
-                                          float epsilonHarvestMovement, boolean shuffleActions) {
-
-        List<UnitAction> filteredActions = new LinkedList<>();
+    public void filterActions(int maxBases, int maxBarracks, int buildingLocation, int maxProduceActionsChosen,
+                              int scanRadius, int maxOccupiedCells,
+                              float epsilonHarvestMovement, boolean shuffleActions, List<UnitAction> filteredActions) {
 
         // Harvesting (Return/Harvest) is possible
-        if (!harvestActions.isEmpty())
-            filteredActions.addAll(harvestActions);
+        if (!actions.isEmpty(ActionDecomposition.HARVEST))
+            actions.addAllTo(ActionDecomposition.HARVEST, filteredActions);
         else {
             // In between the harvesting actions, check if building is possible under the limits.
-            if (!produceBarracksActions.isEmpty() &&
+            if (!actions.isEmpty(ActionDecomposition.PRODUCE_BARRACKS) &&
                     (maxBarracks == -1 || stateMonitor.getPlayerBarracks().size() + stateMonitor.futurePlayerBarracks < maxBarracks))
                 switch (buildingLocation) {
                     case BUILD_AT_RANDOM_LOCATION:
-                        filteredActions.addAll(
-                                choseRandomActionsFrom(produceBarracksActions, maxProduceActionsChosen));
+                        choseRandomActionsFrom(ActionDecomposition.PRODUCE_BARRACKS, maxProduceActionsChosen, filteredActions);
                         break;
                     case BUILD_AT_ISOLATED_LOCATION:
-                        filteredActions.addAll(
-                                choseIsolatedBuildingPosition(produceBarracksActions, maxProduceActionsChosen,
-                                        scanRadius, maxOccupiedCells));
+                        choseIsolatedBuildingPosition(ActionDecomposition.PRODUCE_BARRACKS, maxProduceActionsChosen,
+                                scanRadius, maxOccupiedCells, filteredActions);
                         break;
                 }
-            else if (!produceBaseActions.isEmpty() && (maxBases == -1 || stateMonitor.getPlayerBases().size() < maxBases))
-                filteredActions.addAll(choseRandomActionsFrom(produceBaseActions, maxProduceActionsChosen));
+            else if (!actions.isEmpty(ActionDecomposition.PRODUCE_BASE) &&
+                    (maxBases == -1 || stateMonitor.getPlayerBases().size() < maxBases))
+                choseRandomActionsFrom(ActionDecomposition.PRODUCE_BASE, maxProduceActionsChosen, filteredActions);
 
             // Add attack actions in case the harvester can attack.
-            if (!attackActions.isEmpty())
-                filteredActions.addAll(attackActions);
+            if (!actions.isEmpty(ActionDecomposition.ATTACK))
+                actions.addAllTo(ActionDecomposition.ATTACK, filteredActions);
             // Move towards the closest base or the closest resource deposit
-            else if (!moveActions.isEmpty())
-                if (random.nextFloat() >= epsilonHarvestMovement)
-                    filteredActions.add(getHarvestActions(moveActions));
+            else if (!actions.isEmpty(ActionDecomposition.MOVE))
+                if (random.nextDouble() >= epsilonHarvestMovement)
+                    filteredActions.add(getHarvestActions());
                 else
-                    filteredActions.addAll(moveActions);
+                    actions.addAllTo(ActionDecomposition.MOVE, filteredActions);
         }
 
-        if (shuffleActions) Collections.shuffle(filteredActions);
+        if (shuffleActions) shuffle(filteredActions);
 
         filteredActions.add(waitAction);
-        return filteredActions;
     }
 
     /**
      * Returns the next action to consider for a harvesting unit. Either move towards the closest resource deposit,
-     * or move towards the closest base.
+     * or move towards the closest base. A random move is returned in case path finding fails.
      * TODO : join attack units if harvesting is not possible.
-     * @param possibleMoveActions The fallback move actions, in case path finding fails.
      * @return A TYPE_MOVE unit action.
      */
-    private UnitAction getHarvestActions(List<UnitAction> possibleMoveActions) {
+    private UnitAction getHarvestActions() {
 
         if (unit.getResources() > 0) {
             Unit base = stateMonitor.getPlayerBaseClosestTo(unit);
             if (base != null)
-                return getMoveActionToTargetAdjacent(unit, base, possibleMoveActions, pathFinder);
+                return getMoveActionToTargetAdjacent(unit, base, pathFinder);
         } else {
             Unit resource = stateMonitor.getResourceDepositClosestTo(unit);
             if (resource != null)
-                return getMoveActionToTargetAdjacent(unit, resource, possibleMoveActions, pathFinder);
+                return getMoveActionToTargetAdjacent(unit, resource, pathFinder);
         }
 
-        return possibleMoveActions.remove(random.nextInt(possibleMoveActions.size()));
+        cacheable = false;
+        return actions.getRandom(ActionDecomposition.MOVE, random);
     }
 
     /**
-     * Selects an action from the given build unit actions list. The action is chosen so that the building position
+     * Selects actions from the given build action type. The actions are chosen so that the building position
      * considered is surrounded my the lowest number of occupied cells. The area to scan around the building position is
      * determined by the scan radius parameter.
      *
-     * @param unitActions The list of possible build unit actions.
+     * @param actionType The ActionDecomposition bucket of the possible build unit actions.
      * @param maxChoices The maximum number of unit action to return.
      * @param scanRadius The radius of the area surrounding the chosen location subject to scanning.
      * @param maxOccupiedCells The maximum number of occupied cells surrounding the chosen location.
-     * @return A UnitAction list.
+     * @param output The list receiving the chosen unit actions.
      */
-    private List<UnitAction> choseIsolatedBuildingPosition(List<UnitAction> unitActions, int maxChoices,
-                                                           int scanRadius, int maxOccupiedCells) {
+    private void choseIsolatedBuildingPosition(int actionType, int maxChoices, int scanRadius, int maxOccupiedCells,
+                                               List<UnitAction> output) {
 
-        List<UnitAction> actions = new LinkedList<>(unitActions);
-        List<UnitAction> chosenActions = new LinkedList<>();
+        int chosenActions = 0;
 
-        for (UnitAction action : actions) {
+        for (int index = 0; index < actions.size(actionType); index++) {
+            UnitAction action = actions.get(actionType, index);
             int occupiedCells = 0;
-            if (chosenActions.size() < maxChoices) {
+            if (chosenActions < maxChoices) {
                 switch (action.getDirection()) {
                     case UnitAction.DIRECTION_UP:
                         occupiedCells = scanOccupiedCellsAround(unit.getX(), unit.getY() - 1,
@@ -139,12 +135,13 @@ public class HarvestManager extends HeuristicsManager {
                         break;
                 }
             } else
-                return chosenActions;
+                return;
 
-            if (occupiedCells <= maxOccupiedCells)
-                chosenActions.add(action);
+            if (occupiedCells <= maxOccupiedCells) {
+                output.add(action);
+                chosenActions++;
+            }
         }
-        return chosenActions;
     }
 
 }
@@ -4,137 +4,192 @@ import ai.abstraction.pathfinding.PathFinding;
 import rts.UnitAction;
 import rts.units.Unit;
 
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
 
 public class HeuristicsManager {
 
-    Random random = new Random();
+    // Prior weights **************************************************************************************************
+    static final float PREFERRED_PRIOR = 4.0f; // Harvest, return, attack, produce and path-found moves.
+    static final float DEFAULT_PRIOR = 1.0f; // Other moves and waiting.
+
+    SplittableRandom random; // The unit's own generator, split from the search's.
     StateMonitor stateMonitor;
     Unit unit;
 
-    // unitActions decomposition into each respective action type.
-    List<UnitAction> moveActions = new LinkedList<>(); // TYPE_MOVE
-    List<UnitAction> harvestActions = new LinkedList<>(); // TYPE_HARVEST and TYPE_RETURN
-    List<UnitAction> attackActions = new LinkedList<>(); // TYPE_ATTACK_LOCATION
-
-    // TYPE_PRODUCE, each correspond to the unit type to produce.
-    List<UnitAction> produceBarracksActions = new LinkedList<>();
-    List<UnitAction> produceBaseActions = new LinkedList<>();
-    List<UnitAction> produceWorkerActions = new LinkedList<>();
-    List<UnitAction> produceLightActions = new LinkedList<>();
-    List<UnitAction> produceRangedActions = new LinkedList<>();
-    List<UnitAction> produceHeavyActions = new LinkedList<>();
+    // unitActions decomposition into each respective action type. Shared by all the managers of the same thread, valid
+    // until the next manager is created.
+    ActionDecomposition actions;
 
     // TYPE_NONE
     UnitAction waitAction = null;
 
-    public HeuristicsManager(StateMonitor stateMonitor, Unit unit, List<UnitAction> unitActions) {
+    // False once the output depends on a random choice, or on state outside the unit's filtering signature.
+    boolean cacheable = true;
+
+    // Moves leading to a target, found by path finding or flow fields. Preferred over the other moves.
+    private final Set<UnitAction> directedMoves = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public HeuristicsManager(StateMonitor stateMonitor, Unit unit, List<UnitAction> unitActions,
+                             SplittableRandom random) {
 
         this.unit = unit;
         this.stateMonitor = stateMonitor;
+        this.random = random;
         // The decomposition of unitActions list.
-        for (UnitAction unitAction : unitActions) {
-            switch (unitAction.getType()) {
-                case UnitAction.TYPE_HARVEST:
-                case UnitAction.TYPE_RETURN:
-                    harvestActions.add(unitAction);
-                    break;
-                case UnitAction.TYPE_ATTACK_LOCATION:
-                    attackActions.add(unitAction);
-                    break;
-                case UnitAction.TYPE_PRODUCE:
-                    switch (unitAction.getUnitType().name) {
-                        case "Barracks":
-                            produceBarracksActions.add(unitAction); break;
-                        case "Base":
-                            produceBaseActions.add(unitAction); break;
-                        case "Worker":
-                            produceWorkerActions.add(unitAction); break;
-                        case "Light":
-                            produceLightActions.add(unitAction); break;
-                        case "Ranged":
-                            produceRangedActions.add(unitAction); break;
-                        case "Heavy":
-                            produceHeavyActions.add(unitAction); break;
-                        default:
-                            break;
-                    }
-                    break;
-                case UnitAction.TYPE_MOVE:
-                    moveActions.add(unitAction);
-                    break;
-                case UnitAction.TYPE_NONE:
-                    waitAction = unitAction;
-                    break;
-            }
-        }
+        this.actions = ActionDecomposition.decompose(unitActions);
+        this.waitAction = actions.waitAction;
     }
 
     /**
-     * Selects a number of random actions from a list of given unit actions.
-     * @param unitActions The list of unit-actions to chose from.
+     * Appends a number of random actions, chosen from the given action type, to the output list.
+     * @param actionType The ActionDecomposition bucket to chose from.
      * @param maxChoices The maximum number of actions to chose.
-     * @return A unit-actions list.
+     * @param output The list receiving the chosen actions.
      */
-    List<UnitAction> choseRandomActionsFrom(List<UnitAction> unitActions, int maxChoices) {
+    void choseRandomActionsFrom(int actionType, int maxChoices, List<UnitAction> output) {
+        if (maxChoices != -1 && maxChoices < actions.size(actionType))
+            cacheable = false;
+        actions.addRandomTo(actionType, maxChoices, output, random);
+    }
 
-        List<UnitAction> actions = new LinkedList<>(unitActions);
-        List<UnitAction> chosenActions = new LinkedList<>();
+    /**
+     * Shuffles the filtered actions.
+     * @param filteredActions The list to shuffle.
+     */
+    void shuffle(List<UnitAction> filteredActions) {
+        for (int i = filteredActions.size() - 1; i > 0; i--)
+            Collections.swap(filteredActions, i, random.nextInt(i + 1));
+        cacheable = false;
+    }
 
-        if (maxChoices == -1 || maxChoices >= unitActions.size())
-            return unitActions;
-        else {
-            for (int counter = 0; counter < maxChoices; counter++)
-                chosenActions.add(actions.remove(random.nextInt(actions.size())));
+    /**
+     * Tells whether the last filtered output can be reused for units having the same filtering signature.
+     * @return True if no random choice shaped the output.
+     */
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * Returns the prior weight of each filtered unit-action, normalised to sum to 1. Unit-actions the manager judges
+     * best (harvesting, attacking, producing, and moving towards a target) are preferred over the others.
+     *
+     * @param filteredActions The filtered unit-actions, as returned by the manager.
+     * @return The priors, in the order of the filtered unit-actions.
+     */
+    public float[] getPriors(List<UnitAction> filteredActions) {
+        float[] priors = new float[filteredActions.size()];
+        float sum = 0;
+        int index = 0;
+        for (UnitAction unitAction : filteredActions) {
+            priors[index] = getPrior(unitAction);
+            sum += priors[index++];
+        }
+        for (index = 0; index < priors.length; index++)
+            priors[index] /= sum;
+        return priors;
+    }
 
-            return chosenActions;
+    private float getPrior(UnitAction unitAction) {
+        switch (unitAction.getType()) {
+            case UnitAction.TYPE_NONE:
+                return DEFAULT_PRIOR;
+            case UnitAction.TYPE_MOVE:
+                return directedMoves.contains(unitAction) ? PREFERRED_PRIOR : DEFAULT_PRIOR;
+            default:
+                return PREFERRED_PRIOR;
         }
     }
 
     /**
-     * Returns move unit-actions targeting a set of units, using a path-finding algorithm.
+     * Marks a move as leading to a target.
+     * @return The same move.
+     */
+    UnitAction directed(UnitAction move) {
+        directedMoves.add(move);
+        return move;
+    }
+
+    /**
+     * Appends move unit-actions targeting a set of units, using a path-finding algorithm, to the output list.
      *
      * @param unit The unit in question.
      * @param targetUnits The units to target. (move towards)
-     * @return A list of move unit-actions list.
+     * @param output The list receiving the move unit-actions.
      */
-    List<UnitAction> getMoveActionsToTargetsInRange(Unit unit, List<Unit> targetUnits, PathFinding pathFinder) {
-        List<UnitAction> directedMoveActions = new LinkedList<>();
+    void addMoveActionsToTargetsInRange(Unit unit, List<Unit> targetUnits, PathFinding pathFinder, List<UnitAction> output) {
         for (Unit targetUnit : targetUnits) {
-            int targetPosition = targetUnit.getX() + targetUnit.getY() * stateMonitor.getMapWidth();
-            UnitAction directedMove = pathFinder.findPathToPositionInRange(
-                    unit, targetPosition, unit.getAttackRange(), stateMonitor.getGameState(), stateMonitor.getResourceUsage());
+            UnitAction directedMove = getMoveActionToTargetInRange(unit, targetUnit, pathFinder);
             if (directedMove != null)
-                directedMoveActions.add(directedMove);
+                output.add(directed(directedMove));
+        }
+    }
+
+    /**
+     * Returns the move unit-action leading to the attack range of the target, null if path finding fails.
+     */
+    private UnitAction getMoveActionToTargetInRange(Unit unit, Unit targetUnit, PathFinding pathFinder) {
+        int targetPosition = targetUnit.getX() + targetUnit.getY() * stateMonitor.getMapWidth();
+        return pathFinder.findPathToPositionInRange(
+                unit, targetPosition, unit.getAttackRange(), stateMonitor.getGameState(), stateMonitor.getResourceUsage());
+    }
+
+    /**
+     * Same as addMoveActionsToTargetsInRange, but the moves are read from the flow fields of the targets, shared by
+     * all the units of the state. The path finder is only used when the flow field cannot be followed.
+     *
+     * @param unit The unit in question.
+     * @param targetUnits The units to target. (move towards)
+     * @param pathFinder The fallback path finder.
+     * @param output The list receiving the move unit-actions.
+     */
+    void addMoveActionsToTargetsInRangeByFlowField(Unit unit, List<Unit> targetUnits, PathFinding pathFinder,
+                                                   List<UnitAction> output) {
+        for (Unit targetUnit : targetUnits) {
+            DistanceField flowField = stateMonitor.getFlowField(targetUnit, unit.getAttackRange());
+            if (flowField.isInRange(unit.getX(), unit.getY()))
+                continue; // Already in range, as path finding, no move.
+            int direction = flowField.getDescentDirection(
+                    unit.getX(), unit.getY(), stateMonitor.getGameState(), stateMonitor.getResourceUsage());
+            if (direction != UnitAction.DIRECTION_NONE)
+                output.add(directed(new UnitAction(UnitAction.TYPE_MOVE, direction)));
+            else {
+                UnitAction directedMove = getMoveActionToTargetInRange(unit, targetUnit, pathFinder);
+                if (directedMove != null)
+                    output.add(directed(directedMove));
+            }
         }
-        return directedMoveActions;
     }
 
     /**
      * Returns a UnitAction.TYPE_MOVE action leading to an adjacent position to a target unit, meant for use by workers
-     * to harvest and return resources. A fallback list of possible moves is given in case path finding fails to find
-     * a move action.
+     * to harvest and return resources. A random move of the unit is returned in case path finding fails to find a
+     * move action.
      *
      * @param unit The unit in question.
      * @param target The target in question.
-     * @param possibleMoveActions Fallback move actions.
      * @return A unit action of type : TYPE_MOVE
      */
-    UnitAction getMoveActionToTargetAdjacent(Unit unit, Unit target, List<UnitAction> possibleMoveActions, PathFinding pathFinder) {
+    UnitAction getMoveActionToTargetAdjacent(Unit unit, Unit target, PathFinding pathFinder) {
         int targetPosition = target.getX() + target.getY() * stateMonitor.getMapWidth();
         UnitAction moveTowardsTarget = pathFinder.findPathToAdjacentPosition(
                 unit, targetPosition, stateMonitor.getGameState(), stateMonitor.getResourceUsage());
         if (moveTowardsTarget != null)
-            return moveTowardsTarget;
-        else
-            return possibleMoveActions.remove(random.nextInt(possibleMoveActions.size()));
+            return directed(moveTowardsTarget);
+        else {
+            cacheable = false;
+            return actions.getRandom(ActionDecomposition.MOVE, random);
+        }
     }
 
     /**
      * Counts the number of occupied cells surrounding a given position. The scanned area is determined by the given
-     * relative intervals. Resources/Bases/Barracks/Walls are counted twice because of their immobility.
+     * relative intervals. Resources/Bases/Barracks/Walls are counted twice because of their immobility. The count
+     * is read from the state's occupancy map, in constant time.
      *
      * @param positionX X coordinate of the given position.
      * @param positionY Y coordinate of the given position.
@@ -146,25 +201,14 @@ public class HeuristicsManager {
      */
     int scanOccupiedCellsAround(int positionX, int positionY, int scanStartX, int scanEndX, int scanStartY, int scanEndY) {
 
-        int occupiedCellsCount = 0;
-        boolean[][] allFreeCells = stateMonitor.getPhysicalGameState().getAllFree();
-
-        for (int xIncrement = scanStartX; xIncrement <= scanEndX; xIncrement++)
-            for (int yIncrement = scanStartY; yIncrement <= scanEndY; yIncrement++)
-                // Skip scanning own position.
-                if (!(xIncrement == 0 && yIncrement == 0)) {
-                    int scanX = positionX + xIncrement, scanY = positionY + yIncrement;
-                    if ((scanX >= 0 && scanX < stateMonitor.getMapWidth() &&
-                            scanY >= 0 && scanY < stateMonitor.getMapHeight())
-                            && !allFreeCells[scanX][scanY]) {
-
-                        Unit unitInPosition = stateMonitor.getPhysicalGameState().getUnitAt(scanX,scanY);
-                        if (unitInPosition != null && unitInPosition.getType().canMove)
-                            occupiedCellsCount++;
-                        else
-                            occupiedCellsCount += 2; // Double the number for base, barracks, resources, or walls.
-                    }
-                }
+        InfluenceMap occupancyMap = stateMonitor.getOccupancyMap();
+        int occupiedCellsCount = occupancyMap.countInRectangle(positionX + scanStartX, positionX + scanEndX,
+                positionY + scanStartY, positionY + scanEndY);
+
+        // Skip scanning own position.
+        if (scanStartX <= 0 && scanEndX >= 0 && scanStartY <= 0 && scanEndY >= 0)
+            occupiedCellsCount -= occupancyMap.getInfluence(positionX, positionY);
+
         return occupiedCellsCount;
     }
 
@@ -0,0 +1,172 @@
+package preselection;
+
+import rts.units.Unit;
+
+import java.util.List;
+
+/**
+ * An integer grid covering the map, where each cell holds the number of units influencing it. A unit influences all
+ * the cells within a square range around its position. Ranges are stamped in constant time using a 2D difference
+ * array, which is then accumulated once, after all the units are added.
+ * A summed-area table of the grid is also available, to count the influence inside any rectangular area in constant
+ * time.
+ */
+public class InfluenceMap {
+
+    private final int width;
+    private final int height;
+    private final int[] influence; // Influence per cell, indexed by x + y * width.
+    private int[] summedArea; // Summed-area table, (width + 1) x (height + 1), built on demand.
+
+    /**
+     * Builds an influence map where each unit influences the square area spanning its attack range plus the given
+     * tactical distance.
+     *
+     * @param width The map width.
+     * @param height The map height.
+     * @param units The influencing units.
+     * @param tacticalDistance A distance added to the attack range of each unit.
+     * @return The influence map.
+     */
+    public static InfluenceMap fromAttackRanges(int width, int height, List<Unit> units, int tacticalDistance) {
+        int[] difference = new int[(width + 1) * (height + 1)];
+        for (Unit unit : units)
+            stamp(difference, width, height, unit.getX(), unit.getY(), unit.getAttackRange() + tacticalDistance);
+        return new InfluenceMap(width, height, accumulate(width, height, difference));
+    }
+
+    /**
+     * Builds an influence map where each unit only influences its own cell, i.e. a presence map. Combined with
+     * countInSquare, it answers whether any of the units lies within a given square area.
+     *
+     * @param width The map width.
+     * @param height The map height.
+     * @param units The units in question.
+     * @return The presence map.
+     */
+    public static InfluenceMap fromPositions(int width, int height, List<Unit> units) {
+        int[] difference = new int[(width + 1) * (height + 1)];
+        for (Unit unit : units)
+            stamp(difference, width, height, unit.getX(), unit.getY(), 0);
+        return new InfluenceMap(width, height, accumulate(width, height, difference));
+    }
+
+    /**
+     * Builds an influence map from precomputed cell values.
+     *
+     * @param width The map width.
+     * @param height The map height.
+     * @param weights The value of each cell, indexed by x + y * width.
+     * @return The influence map.
+     */
+    public static InfluenceMap fromWeights(int width, int height, int[] weights) {
+        return new InfluenceMap(width, height, weights);
+    }
+
+    private InfluenceMap(int width, int height, int[] influence) {
+        this.width = width;
+        this.height = height;
+        this.influence = influence;
+    }
+
+    /**
+     * Accumulates the difference array into the final grid.
+     */
+    private static int[] accumulate(int width, int height, int[] difference) {
+        int[] influence = new int[width * height];
+        int stride = width + 1;
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++) {
+                int value = difference[x + y * stride];
+                if (x > 0) value += difference[x - 1 + y * stride];
+                if (y > 0) value += difference[x + (y - 1) * stride];
+                if (x > 0 && y > 0) value -= difference[x - 1 + (y - 1) * stride];
+                difference[x + y * stride] = value;
+                influence[x + y * width] = value;
+            }
+        return influence;
+    }
+
+    /**
+     * Adds one unit of influence to the square of the given range around (x, y), clipped to the map.
+     */
+    private static void stamp(int[] difference, int width, int height, int x, int y, int range) {
+        int minX = Math.max(0, x - range), maxX = Math.min(width - 1, x + range);
+        int minY = Math.max(0, y - range), maxY = Math.min(height - 1, y + range);
+        if (minX > maxX || minY > maxY) return;
+
+        int stride = width + 1;
+        difference[minX + minY * stride]++;
+        difference[maxX + 1 + minY * stride]--;
+        difference[minX + (maxY + 1) * stride]--;
+        difference[maxX + 1 + (maxY + 1) * stride]++;
+    }
+
+    /**
+     * Returns the influence at the given cell, 0 outside the map.
+     *
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     * @return The number of units influencing the cell.
+     */
+    public int getInfluence(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return 0;
+        return influence[x + y * width];
+    }
+
+    /**
+     * Returns the sum of the influence inside the square of the given range around (x, y), clipped to the map.
+     *
+     * @param x The X coordinate of the center.
+     * @param y The Y coordinate of the center.
+     * @param range The half side of the square.
+     * @return The summed influence.
+     */
+    public int countInSquare(int x, int y, int range) {
+        return countInRectangle(x - range, x + range, y - range, y + range);
+    }
+
+    /**
+     * Returns the sum of the influence inside the given rectangle (bounds included), clipped to the map.
+     *
+     * @param startX The X coordinate of the left side.
+     * @param endX The X coordinate of the right side.
+     * @param startY The Y coordinate of the top side.
+     * @param endY The Y coordinate of the bottom side.
+     * @return The summed influence.
+     */
+    public int countInRectangle(int startX, int endX, int startY, int endY) {
+        int minX = Math.max(0, startX), maxX = Math.min(width - 1, endX);
+        int minY = Math.max(0, startY), maxY = Math.min(height - 1, endY);
+        if (minX > maxX || minY > maxY) return 0;
+
+        int[] table = getSummedArea();
+        int stride = width + 1;
+        return table[(maxX + 1) + (maxY + 1) * stride] - table[minX + (maxY + 1) * stride]
+                - table[(maxX + 1) + minY * stride] + table[minX + minY * stride];
+    }
+
+    /**
+     * Builds the summed-area table on first use. Entry (x, y) holds the influence sum over [0, x) x [0, y).
+     */
+    private synchronized int[] getSummedArea() {
+        if (summedArea == null) {
+            int stride = width + 1;
+            int[] table = new int[stride * (height + 1)];
+            for (int y = 0; y < height; y++)
+                for (int x = 0; x < width; x++)
+                    table[(x + 1) + (y + 1) * stride] = influence[x + y * width]
+                            + table[x + (y + 1) * stride] + table[(x + 1) + y * stride] - table[x + y * stride];
+            summedArea = table;
+        }
+        return summedArea;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -4,9 +4,10 @@ import ai.abstraction.pathfinding.PathFinding;
 import rts.UnitAction;
 import rts.units.Unit;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.SplittableRandom;
 
 public class OffenseManager extends HeuristicsManager {
 
@@ -16,6 +17,9 @@ public class OffenseManager extends HeuristicsManager {
     public static final int TARGET_MIN_HP = 2; // Attack units with smallest HP.
     public static final int TARGET_MAX_HP = 3; // Attack units with biggest HP.
     public static final int TARGET_RANDOM = 4; // Chose attack targets randomly.
+    public static final int TARGET_FAVORABLE = 5; // Attack units whose local fight has the best forecast outcome.
+
+    private static final int ENGAGEMENT_RANGE = 3; // Square range of the units taking part in a target's fight.
 
     // Fixed Target ********************************************************************
     public static final int NO_FIXED_TARGET = 0; // No fixed target
@@ -25,8 +29,9 @@ public class OffenseManager extends HeuristicsManager {
 
     PathFinding pathFinder;
 
-    public OffenseManager(StateMonitor stateMonitor, PathFinding pathFinder, Unit unit, List<UnitAction> unitActions) {
-        super(stateMonitor, unit, unitActions);
+    public OffenseManager(StateMonitor stateMonitor, PathFinding pathFinder, Unit unit, List<UnitAction> unitActions,
+                          SplittableRandom random) {
+        super(stateMonitor, unit, unitActions, random);
         this.pathFinder = pathFinder;
     }
 
@@ -38,148 +43,153 @@ public class OffenseManager extends HeuristicsManager {
      *
      * @param maxTargets The maximum number of units to target.
      * @param maxEscapes The maximum number of escapes allowed.
-     * @return A filtered unit-actions list.
+     * @param fixedTargetFlowFields Use the shared flow fields to reach the fixed targets.
+     * @param filteredActions The list receiving the filtered unit-actions.
      */
-    public List<UnitAction> filterActions(int maxTargets, int maxEscapes, int attackMode, float epsilonAttackMovement,
-                                          int fixedTarget, boolean shuffleActions) {
-
-        List<UnitAction> filteredActions = new LinkedList<>();
-
-        if (!attackActions.isEmpty()) { // Attacking is possible.
-            filteredActions.addAll(attackActions);
-            filteredActions.addAll(choseRandomActionsFrom(moveActions, maxEscapes)); // Add all possible move actions (escapes)
-        } else if (!moveActions.isEmpty()) {
-            if (random.nextFloat() >= epsilonAttackMovement) { // Exploit. Chase a number of close opponent units.
+    public void filterActions(int maxTargets, int maxEscapes, int attackMode, float epsilonAttackMovement,
+                              int fixedTarget, boolean fixedTargetFlowFields, boolean shuffleActions,
+                              List<UnitAction> filteredActions) {
+
+        if (!actions.isEmpty(ActionDecomposition.ATTACK)) { // Attacking is possible.
+            actions.addAllTo(ActionDecomposition.ATTACK, filteredActions);
+            choseRandomActionsFrom(ActionDecomposition.MOVE, maxEscapes, filteredActions); // Add possible move actions (escapes)
+        } else if (!actions.isEmpty(ActionDecomposition.MOVE)) {
+            if (random.nextDouble() >= epsilonAttackMovement) { // Exploit. Chase a number of close opponent units.
                 switch (attackMode) {
                     case TARGET_CLOSEST:
-                        filteredActions.addAll(getMoveActionsToClosestOpponentUnits(maxTargets));
+                        addMoveActionsToTargetsInRange(unit,
+                                stateMonitor.getOpponentUnitsClosestTo(unit, maxTargets), pathFinder, filteredActions);
                         break;
                     case TARGET_CLOSEST_TO_BASE:
-                        filteredActions.addAll(getMoveActionsToOpponentUnitsClosestToBase(maxTargets));
+                        addMoveActionsToOpponentUnitsClosestToBase(maxTargets, filteredActions);
                         break;
-                    case TARGET_MAX_HP:
-                        filteredActions.addAll(getMoveActionsToHighestHPOpponentUnits(maxTargets));
+                    case TARGET_MAX_HP: // Depends on all the opponent units, not only the closest ones.
+                        cacheable = false;
+                        addMoveActionsToTargetsInRange(unit,
+                                stateMonitor.getOpponentUnitsHighestHP(maxTargets), pathFinder, filteredActions);
                         break;
                     case TARGET_MIN_HP:
-                        filteredActions.addAll(getMoveActionsToLowestHPOpponentUnits(maxTargets));
+                        cacheable = false;
+                        addMoveActionsToTargetsInRange(unit,
+                                stateMonitor.getOpponentUnitsLowestHP(maxTargets), pathFinder, filteredActions);
                         break;
                     case TARGET_RANDOM:
-                        filteredActions.addAll(getMoveActionsToRandomOpponentUnits(maxTargets));
+                        cacheable = false;
+                        addMoveActionsToTargetsInRange(unit,
+                                stateMonitor.getOpponentUnitsRandom(maxTargets, random), pathFinder, filteredActions);
+                        break;
+                    case TARGET_FAVORABLE: // Depends on the player units around the targets.
+                        cacheable = false;
+                        addMoveActionsToTargetsInRange(unit, getFavorableTargets(maxTargets), pathFinder,
+                                filteredActions);
                 }
             } else // Explore. Return all movement directions.
-                filteredActions.addAll(moveActions);
-//                filteredActions.addAll(getMoveActionsToRandomOpponentUnits(maxTargets));
+                actions.addAllTo(ActionDecomposition.MOVE, filteredActions);
 
-            filteredActions.addAll(getMoveActionsToFixedOpponentTarget(fixedTarget));
+            addMoveActionsToFixedOpponentTarget(fixedTarget, fixedTargetFlowFields, filteredActions);
         }
 
-        if (shuffleActions) Collections.shuffle(filteredActions);
+        if (shuffleActions) shuffle(filteredActions);
 
         filteredActions.add(waitAction);
-        return filteredActions;
     }
 
     /**
-     * Returns a list of UnitAction.TYPE_MOVE unit actions, each targeting an opponent unit. The opponent units are chosen
-     * based on their proximity to the current unit.
-     *
-     * @param maxTargets The number of close opponent units to consider.
-     * @return UnitAction.TYPE_MOVE list.
-     */
-    private List<UnitAction> getMoveActionsToClosestOpponentUnits(int maxTargets) {
-        return getMoveActionsToTargetsInRange(unit,
-                stateMonitor.getOpponentUnitsClosestTo(unit, maxTargets), pathFinder);
-    }
-
-    /**
-     * Returns a list of move unit-actions, targeting opponent units close to own base, if there is a base. If no base
-     * exits, target units close to self.
+     * Appends move unit-actions, targeting opponent units close to own base, if there is a base, to the output list.
+     * If no base exits, target units close to self.
      *
      * @param maxTargets The maximum number of targets.
-     * @return A list of move unit-actions.
+     * @param output The list receiving the move unit-actions.
      */
-    private List<UnitAction> getMoveActionsToOpponentUnitsClosestToBase(int maxTargets) {
+    private void addMoveActionsToOpponentUnitsClosestToBase(int maxTargets, List<UnitAction> output) {
         if (!stateMonitor.getPlayerBases().isEmpty())
-            return getMoveActionsToTargetsInRange(unit,
-                    stateMonitor.getOpponentUnitsClosestTo(stateMonitor.getPlayerBases().get(0), maxTargets), pathFinder);
+            addMoveActionsToTargetsInRange(unit,
+                    stateMonitor.getOpponentUnitsClosestTo(stateMonitor.getPlayerBases().get(0), maxTargets), pathFinder,
+                    output);
         else
-            return getMoveActionsToTargetsInRange(unit,
-                    stateMonitor.getOpponentUnitsClosestTo(unit, maxTargets), pathFinder);
-    }
-
-    /**
-     * Returns a list of move unit-actions targeting enemy units having the lowest HP.
-     *
-     * @param maxTargets The maximum number of targets.
-     * @return A list of move unit-actions.
-     */
-    private List<UnitAction> getMoveActionsToLowestHPOpponentUnits(int maxTargets) {
-        return getMoveActionsToTargetsInRange(unit,
-                stateMonitor.getOpponentUnitsLowestHP(maxTargets), pathFinder);
+            addMoveActionsToTargetsInRange(unit,
+                    stateMonitor.getOpponentUnitsClosestTo(unit, maxTargets), pathFinder, output);
     }
 
     /**
-     * Returns a list of move unit-actions targeting enemy units having the highest HP.
+     * Returns the close opponent units whose fight is the most favorable. Twice as many opponent units as needed are
+     * considered, closest first, and each one is ranked by the forecast outcome of the fight between the units standing
+     * around it, self included.
      *
      * @param maxTargets The maximum number of targets.
-     * @return A list of move unit-actions.
+     * @return The targets, most favorable first.
      */
-    private List<UnitAction> getMoveActionsToHighestHPOpponentUnits(int maxTargets) {
-        return getMoveActionsToTargetsInRange(unit,
-                stateMonitor.getOpponentUnitsHighestHP(maxTargets), pathFinder);
-    }
+    private List<Unit> getFavorableTargets(int maxTargets) {
+        List<Unit> candidates = new ArrayList<>(stateMonitor.getOpponentUnitsClosestTo(unit, maxTargets * 2));
+        if (candidates.size() <= maxTargets)
+            return candidates;
+
+        float[] balances = new float[candidates.size()];
+        for (int i = 0; i < balances.length; i++) {
+            Unit candidate = candidates.get(i);
+            List<Unit> playerUnits = CombatEstimator.getEngagedUnits(stateMonitor.getPlayerMobileUnits(),
+                    Collections.singletonList(candidate), ENGAGEMENT_RANGE);
+            if (!playerUnits.contains(unit))
+                playerUnits.add(unit);
+            balances[i] = new CombatEstimator(playerUnits,
+                    stateMonitor.getOpponentUnitsAround(candidate, ENGAGEMENT_RANGE)).getBalance();
+        }
 
-    /**
-     * Returns a list of move unit-actions targeting random enemy units.
-     *
-     * @param maxTargets The maximum number of targets.
-     * @return A list of move unit-actions.
-     */
-    private List<UnitAction> getMoveActionsToRandomOpponentUnits(int maxTargets) {
-        return getMoveActionsToTargetsInRange(unit,
-                stateMonitor.getOpponentUnitsRandom(maxTargets), pathFinder);
+        List<Unit> targets = new ArrayList<>(maxTargets);
+        while (targets.size() < maxTargets) {
+            int best = -1;
+            for (int i = 0; i < balances.length; i++)
+                if (!Float.isNaN(balances[i]) && (best == -1 || balances[i] > balances[best]))
+                    best = i;
+            targets.add(candidates.get(best));
+            balances[best] = Float.NaN; // Taken.
+        }
+        return targets;
     }
 
-
     /**
-     * Returns move actions targeting fixed opponent unit(s). The target type is defined by the fixedTarget parameter.
-     * This is useful for keeping track of high-profile targets that yield the highest reward when eliminated.
+     * Appends move actions targeting fixed opponent unit(s) to the output list. The target type is defined by the
+     * fixedTarget parameter. This is useful for keeping track of high-profile targets that yield the highest reward
+     * when eliminated.
      *
      * @param fixedTarget The parameter defining which opponent unit-type to target.
-     * @return A List of move UnitActions leading to the targeted unit(s).
+     * @param useFlowFields Read the moves from the shared flow fields instead of searching a path.
+     * @param output The list receiving the move UnitActions leading to the targeted unit(s).
      */
-    private List<UnitAction> getMoveActionsToFixedOpponentTarget(int fixedTarget) {
+    private void addMoveActionsToFixedOpponentTarget(int fixedTarget, boolean useFlowFields, List<UnitAction> output) {
         switch (fixedTarget) {
             case NO_FIXED_TARGET:
-                return Collections.emptyList();
+                break;
             case FIXED_TARGET_BASE_FIRST:
                 if (!stateMonitor.getOpponentBases().isEmpty())
-                    return getMoveActionsToTargetsInRange(unit,
-                            stateMonitor.getOpponentBases().subList(0, 1), pathFinder);
+                    addMoveActionsToFixedTargets(useFlowFields, stateMonitor.getOpponentBases().subList(0, 1), output);
 
                 else if (!stateMonitor.getOpponentBarracks().isEmpty())
-                    return getMoveActionsToTargetsInRange(unit,
-                            stateMonitor.getOpponentBarracks().subList(0, 1), pathFinder);
+                    addMoveActionsToFixedTargets(useFlowFields, stateMonitor.getOpponentBarracks().subList(0, 1), output);
                 break;
             case FIXED_TARGET_BARRACKS_FIRST:
                 if (!stateMonitor.getOpponentBarracks().isEmpty())
-                    return getMoveActionsToTargetsInRange(unit,
-                            stateMonitor.getOpponentBarracks().subList(0, 1), pathFinder);
+                    addMoveActionsToFixedTargets(useFlowFields, stateMonitor.getOpponentBarracks().subList(0, 1), output);
 
                 else if (!stateMonitor.getOpponentBases().isEmpty())
-                    return getMoveActionsToTargetsInRange(unit,
-                            stateMonitor.getOpponentBases().subList(0, 1), pathFinder);
+                    addMoveActionsToFixedTargets(useFlowFields, stateMonitor.getOpponentBases().subList(0, 1), output);
                 break;
             case FIXED_TARGET_ALL_STRUCTURES:
-                List<UnitAction> fixedTargetMoves = new LinkedList<>();
                 if (!stateMonitor.getOpponentBases().isEmpty())
-                    fixedTargetMoves.addAll(getMoveActionsToTargetsInRange(unit,
-                            stateMonitor.getOpponentBases().subList(0, 1), pathFinder));
+                    addMoveActionsToFixedTargets(useFlowFields, stateMonitor.getOpponentBases().subList(0, 1), output);
                 if (!stateMonitor.getOpponentBarracks().isEmpty())
-                    fixedTargetMoves.addAll(getMoveActionsToTargetsInRange(unit,
-                            stateMonitor.getOpponentBarracks().subList(0, 1), pathFinder));
-                return fixedTargetMoves;
+                    addMoveActionsToFixedTargets(useFlowFields, stateMonitor.getOpponentBarracks().subList(0, 1), output);
+                break;
         }
-        return Collections.emptyList();
+    }
+
+    /**
+     * Appends move actions towards the given fixed targets, either from the shared flow fields or by path finding.
+     */
+    private void addMoveActionsToFixedTargets(boolean useFlowFields, List<Unit> targetUnits, List<UnitAction> output) {
+        if (useFlowFields)
+            addMoveActionsToTargetsInRangeByFlowField(unit, targetUnits, pathFinder, output);
+        else
+            addMoveActionsToTargetsInRange(unit, targetUnits, pathFinder, output);
     }
 }
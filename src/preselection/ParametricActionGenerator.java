@@ -7,6 +7,9 @@ import rts.units.Unit;
 import util.Pair;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This class implements an adaptive move generation approach inspired by the CmabAsymmetricGenerator by @rubens
@@ -21,11 +24,18 @@ public class ParametricActionGenerator {
     private EventsManager eventsManager; // Manages event-based heuristics.
 
     private PreSelectionParameters parameters;
+    private SplittableRandom random; // Split into one generator per unit, in unit order.
 
     // The list of action choices, for each unit.
     private List<Pair<Unit, List<UnitAction>>> choices = new ArrayList<>();
+    // The priors of each unit's choices, normalised, in the same order. Null for units without priors.
+    private List<float[]> priors = new ArrayList<>();
     // Size of the possible choice combination.
     private long size = 1;
+    // The filtering signature part shared by all the units, built on first use.
+    private FilteredActionsCache.Signature stateSignature;
+    // Units switching from defense to offense while units are filtered in parallel, null otherwise.
+    private Set<Unit> deferredRoleSwitches;
 
     /**
      * The main constructor, populates the choices list with all the possible actions, relying on the different
@@ -36,11 +46,41 @@ public class ParametricActionGenerator {
      * @throws Exception
      */
     public ParametricActionGenerator(GameState gameState, int playerID, PreSelectionParameters parameters) throws Exception {
+        this(gameState, playerID, parameters, null);
+    }
+
+    /**
+     * Same as above, the functional groups start from the roles kept in the given registry. Unseeded.
+     *
+     * @param gameState
+     * @param playerID
+     * @param parameters
+     * @param roleRegistry The persistent unit roles, null to assign all roles from scratch.
+     * @throws Exception
+     */
+    public ParametricActionGenerator(GameState gameState, int playerID, PreSelectionParameters parameters,
+                                     UnitRoleRegistry roleRegistry) throws Exception {
+        this(gameState, playerID, parameters, roleRegistry, new SplittableRandom());
+    }
+
+    /**
+     * Same as above, the functional groups start from the roles kept in the given registry.
+     *
+     * @param gameState
+     * @param playerID
+     * @param parameters
+     * @param roleRegistry The persistent unit roles, null to assign all roles from scratch.
+     * @param random The source of all the random choices of the generator.
+     * @throws Exception
+     */
+    public ParametricActionGenerator(GameState gameState, int playerID, PreSelectionParameters parameters,
+                                     UnitRoleRegistry roleRegistry, SplittableRandom random) throws Exception {
 
         this.parameters = parameters;
+        this.random = random;
         // Enumerates and decomposes all the units on the map.
         stateMonitor = new StateMonitor(gameState, playerID);
-        functionalGroupsMonitor = new FunctionalGroupsMonitor(stateMonitor,
+        functionalGroupsMonitor = new FunctionalGroupsMonitor(stateMonitor, roleRegistry,
                 parameters.priority, parameters.maxHarvesters,
                 parameters.maxDefenseWorkers, parameters.maxDefenseLights, parameters.maxDefenseRanged, parameters.maxDefenseHeavies,
                 parameters.maxOffenseWorkers, parameters.maxOffenseLights, parameters.maxOffenseRanged, parameters.maxOffenseHeavies);
@@ -73,31 +113,170 @@ public class ParametricActionGenerator {
 
     /**
      * Generate low-level unit actions for a given group of units. The wait action generated is assigned a predefined
-     * duration. Unit-actions are filtered heuristically before returning.
+     * duration. Unit-actions are filtered heuristically before returning. Past the parallel generation threshold, units
+     * are filtered on the common fork-join pool, their role switches and shared cache updates are deferred and applied
+     * in unit order once all units are done. The choices keep the unit order in both modes. Each unit draws from its own generator, split in
+     * unit order beforehand, so that both modes make the same random choices.
      *
      * @param heuristicFiltering If true, heuristic filtering is applied to each unit and its unit actions.
      */
     private void generateUnitActionChoices(boolean heuristicFiltering) {
-        for (Unit unit : stateMonitor.getAllPlayerUnits()) {
-            if (stateMonitor.getUnitActions().get(unit) == null) {
 
-                List<UnitAction> unitActions;
-                if (situationalGroupsMonitor.getFrontLineUnits().contains(unit))
-                    unitActions = unit.getUnitActions(stateMonitor.getGameState(), parameters.frontLineWaitDuration);
-                else
-                    unitActions = unit.getUnitActions(stateMonitor.getGameState(), parameters.defaultWaitDuration);
+        List<Unit> units = new ArrayList<>();
+        for (Unit unit : stateMonitor.getAllPlayerUnits())
+            if (stateMonitor.getUnitActions().get(unit) == null)
+                units.add(unit);
+
+        List<Pair<List<UnitAction>, float[]>> unitActionLists = new ArrayList<>(Collections.nCopies(units.size(), null));
+        SplittableRandom[] unitRandoms = new SplittableRandom[units.size()];
+        for (int i = 0; i < unitRandoms.length; i++)
+            unitRandoms[i] = random.split();
+
+        if (heuristicFiltering && parameters.parallelGenerationThreshold != -1 &&
+                units.size() > parameters.parallelGenerationThreshold) {
+
+            // Shared lazily built state, built before the units are filtered concurrently.
+            if (parameters.cacheFilteredActions)
+                getStateSignature();
+            deferredRoleSwitches = ConcurrentHashMap.newKeySet();
+            List<List<Runnable>> cacheJournals = new ArrayList<>(units.size());
+            for (int i = 0; i < units.size(); i++)
+                cacheJournals.add(new ArrayList<>());
+
+            ForkJoinPool.commonPool().invoke(
+                    new UnitFilteringTask(units, unitRandoms, cacheJournals, unitActionLists, 0, units.size()));
+
+            for (Unit unit : units)
+                if (deferredRoleSwitches.contains(unit))
+                    functionalGroupsMonitor.fromDefenseToOffenseUnit(unit);
+            deferredRoleSwitches = null;
+            for (List<Runnable> cacheJournal : cacheJournals)
+                for (Runnable update : cacheJournal)
+                    update.run();
+        } else
+            for (int i = 0; i < units.size(); i++)
+                unitActionLists.set(i, generateUnitActions(units.get(i), heuristicFiltering, unitRandoms[i]));
+
+        for (int i = 0; i < units.size(); i++) {
+            List<UnitAction> unitActions = unitActionLists.get(i).m_a;
+            choices.add(new Pair<>(units.get(i), unitActions));
+            priors.add(unitActionLists.get(i).m_b);
+
+            long tmp = unitActions.size();
+            if (Long.MAX_VALUE / size <= tmp)
+                size = Long.MAX_VALUE;
+            else
+                size *= unitActions.size();
+        }
+    }
 
-                if (heuristicFiltering)
-                    unitActions = heuristicFiltering(unit, unitActions);
+    /**
+     * Generates the unit-actions of a single unit, filtered if required, and their priors (null if none).
+     */
+    private Pair<List<UnitAction>, float[]> generateUnitActions(Unit unit, boolean heuristicFiltering,
+                                                                SplittableRandom random) {
+        List<UnitAction> unitActions;
+        if (situationalGroupsMonitor.isFrontLineUnit(unit))
+            unitActions = unit.getUnitActions(stateMonitor.getGameState(), parameters.frontLineWaitDuration);
+        else
+            unitActions = unit.getUnitActions(stateMonitor.getGameState(), parameters.defaultWaitDuration);
+
+        if (heuristicFiltering) {
+            Pair<List<UnitAction>, float[]> filteredActions = heuristicFiltering(unit, unitActions, random);
+            if (isScriptedUnit(unit) && filteredActions.m_b != null)
+                return getTopChoice(filteredActions);
+            if (parameters.priorVirtualVisits <= 0 && filteredActions.m_b != null)
+                return new Pair<>(filteredActions.m_a, null); // Priors only served the scripted units.
+            return filteredActions;
+        }
+
+        return new Pair<>(unitActions, null);
+    }
+
+    /**
+     * Tells whether the unit is left out of the search, in front-line only search: mobile units away from the front
+     * line. Production structures and front-line units are always searched.
+     */
+    private boolean isScriptedUnit(Unit unit) {
+        return parameters.frontLineOnlySearch && unit.getType().canMove && !situationalGroupsMonitor.isFrontLineUnit(unit);
+    }
 
+    /**
+     * Priors are needed by the local MABs, and to find the top choice of scripted units.
+     */
+    private boolean isPriorsEnabled() {
+        return parameters.priorVirtualVisits > 0 || parameters.frontLineOnlySearch;
+    }
+
+    /**
+     * Returns the unit-action having the highest prior as the unit's only choice. Ties are broken by the order a script
+     * would follow: attack, return, harvest, move, produce, then wait. The priors are only kept for the local MABs.
+     */
+    private Pair<List<UnitAction>, float[]> getTopChoice(Pair<List<UnitAction>, float[]> filteredActions) {
+        List<UnitAction> actions = filteredActions.m_a;
+        float[] actionPriors = filteredActions.m_b;
+        int topIndex = 0;
+        for (int i = 1; i < actionPriors.length; i++)
+            if (actionPriors[i] > actionPriors[topIndex] || (actionPriors[i] == actionPriors[topIndex] &&
+                    getScriptRank(actions.get(i)) < getScriptRank(actions.get(topIndex))))
+                topIndex = i;
+        return new Pair<>(Collections.singletonList(actions.get(topIndex)),
+                parameters.priorVirtualVisits > 0 ? new float[]{1} : null);
+    }
+
+    /**
+     * Returns the rank of a unit-action in a scripted unit's order of preference, lower is preferred.
+     */
+    private static int getScriptRank(UnitAction unitAction) {
+        switch (unitAction.getType()) {
+            case UnitAction.TYPE_ATTACK_LOCATION: return 0;
+            case UnitAction.TYPE_RETURN: return 1;
+            case UnitAction.TYPE_HARVEST: return 2;
+            case UnitAction.TYPE_MOVE: return 3;
+            case UnitAction.TYPE_PRODUCE: return 4;
+            default: return 5;
+        }
+    }
 
-                choices.add(new Pair<>(unit, unitActions));
+    /**
+     * Filters a range of units, splitting it in halves until it is small enough to be filtered by a single task.
+     */
+    private class UnitFilteringTask extends RecursiveAction {
+
+        private static final int UNITS_PER_TASK = 4;
+
+        private final List<Unit> units;
+        private final SplittableRandom[] unitRandoms;
+        private final List<List<Runnable>> cacheJournals; // The deferred cache updates of each unit.
+        private final List<Pair<List<UnitAction>, float[]>> unitActionLists; // Output, set at the same index as the unit.
+        private final int from;
+        private final int to;
+
+        UnitFilteringTask(List<Unit> units, SplittableRandom[] unitRandoms, List<List<Runnable>> cacheJournals,
+                          List<Pair<List<UnitAction>, float[]>> unitActionLists, int from, int to) {
+            this.units = units;
+            this.unitRandoms = unitRandoms;
+            this.cacheJournals = cacheJournals;
+            this.unitActionLists = unitActionLists;
+            this.from = from;
+            this.to = to;
+        }
 
-                long tmp = unitActions.size();
-                if (Long.MAX_VALUE / size <= tmp)
-                    size = Long.MAX_VALUE;
-                else
-                    size *= unitActions.size();
+        @Override
+        protected void compute() {
+            if (to - from <= UNITS_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    CacheJournal.open(cacheJournals.get(i));
+                    try {
+                        unitActionLists.set(i, generateUnitActions(units.get(i), true, unitRandoms[i]));
+                    } finally {
+                        CacheJournal.close();
+                    }
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new UnitFilteringTask(units, unitRandoms, cacheJournals, unitActionLists, from, middle),
+                        new UnitFilteringTask(units, unitRandoms, cacheJournals, unitActionLists, middle, to));
             }
         }
     }
@@ -109,74 +288,245 @@ public class ParametricActionGenerator {
      *
      * @param unit The unit in question.
      * @param unitActions All the possible unit-actions.
-     * @return A filtered list of unit-actions.
+     * @param random The unit's random generator.
+     * @return A filtered list of unit-actions, and their priors if enabled (null otherwise).
      */
-    private List<UnitAction> heuristicFiltering(Unit unit, List<UnitAction> unitActions) {
+    private Pair<List<UnitAction>, float[]> heuristicFiltering(Unit unit, List<UnitAction> unitActions,
+                                                               SplittableRandom random) {
+
+        // The managers append the filtered unit-actions to this list.
+        List<UnitAction> filteredActions = new ArrayList<>(unitActions.size());
+        // The exploration draws are made here, so that both outcomes can be reused from the filtered actions cache.
+        // Set when the unit leaves the defense perimeter while its role switch is deferred.
+        boolean switchedToOffense = false;
+        // Scripted units keep their manager's top choice only, they do not explore.
+        boolean scripted = isScriptedUnit(unit);
 
         // The unit is a harvesting worker.
-        if (functionalGroupsMonitor.getHarvestUnits().contains(unit)) {
+        if (functionalGroupsMonitor.isHarvestUnit(unit)) {
 
-            HarvestManager harvestManager = new HarvestManager(stateMonitor, parameters.harvestPathFinder, unit, unitActions);
-            return harvestManager.filterActions(parameters.maxBases, parameters.maxBarracks, parameters.buildLocation,
+            boolean explore = !scripted && random.nextDouble() < parameters.epsilonHarvestMovement;
+            FilteredActionsCache.Signature signature = getFilteringSignature(unit, unitActions, explore);
+            Pair<List<UnitAction>, float[]> cachedActions = getCachedActions(signature);
+            if (cachedActions != null) return cachedActions;
+
+            HarvestManager harvestManager = new HarvestManager(stateMonitor, parameters.harvestPathFinder, unit, unitActions,
+                    random);
+            harvestManager.filterActions(parameters.maxBases, parameters.maxBarracks, parameters.buildLocation,
                     parameters.maxBuildActionsChosen, parameters.isolatedBuildScanRadius, parameters.isolatedBuildMaxOccupiedCells,
-                    parameters.epsilonHarvestMovement, parameters.shuffleActions);
+                    explore ? 1.0f : 0.0f, parameters.shuffleActions, filteredActions);
+            return cacheActions(signature, harvestManager, filteredActions);
         }
 
         // The unit is adopting a defensive stance.
-        if (functionalGroupsMonitor.getDefenseUnits().contains(unit)) {
+        if (functionalGroupsMonitor.isDefenseUnit(unit)) {
 
-            PathFinding pathFinder = situationalGroupsMonitor.getFrontLineUnits().contains(unit) ?
+            PathFinding pathFinder = situationalGroupsMonitor.isFrontLineUnit(unit) ?
                             parameters.frontLinePathFinder : parameters.defensePathFinder;
 
-            DefenseManager defenseManager = new DefenseManager(stateMonitor, pathFinder, unit, unitActions);
+            DefenseManager defenseManager = new DefenseManager(stateMonitor, pathFinder, unit, unitActions, random);
             if (defenseManager.unitOutsideDefensePerimeter(
-                    parameters.horizontalDistanceFromBase, parameters.verticalDistanceFromBase, parameters.radiusFromBase))
-                functionalGroupsMonitor.fromDefenseToOffenseUnit(unit); // Unit outside perimeter.
-            else
-                return defenseManager.filterActions(parameters.horizontalDistanceFromBase, parameters.verticalDistanceFromBase,
+                    parameters.horizontalDistanceFromBase, parameters.verticalDistanceFromBase, parameters.radiusFromBase)) {
+                // Unit outside perimeter.
+                if (deferredRoleSwitches != null) {
+                    deferredRoleSwitches.add(unit);
+                    switchedToOffense = true;
+                } else
+                    functionalGroupsMonitor.fromDefenseToOffenseUnit(unit);
+            } else {
+                boolean explore = !scripted && random.nextDouble() < parameters.epsilonDefenseMovement;
+                FilteredActionsCache.Signature signature = getFilteringSignature(unit, unitActions, explore);
+                Pair<List<UnitAction>, float[]> cachedActions = getCachedActions(signature);
+                if (cachedActions != null) return cachedActions;
+
+                defenseManager.filterActions(parameters.horizontalDistanceFromBase, parameters.verticalDistanceFromBase,
                         parameters.radiusFromBase, parameters.maxTargetsOnDefense, parameters.defenseMode,
-                        parameters.epsilonDefenseMovement, parameters.shuffleActions);
+                        explore ? 1.0f : 0.0f, parameters.shuffleActions, filteredActions);
+                return cacheActions(signature, defenseManager, filteredActions);
+            }
         }
 
         // The unit is adopting an offensive stance.
-        if (functionalGroupsMonitor.getOffenseUnits().contains(unit)) {
+        if (switchedToOffense || functionalGroupsMonitor.isOffenseUnit(unit)) {
 
-            PathFinding pathFinder = situationalGroupsMonitor.getFrontLineUnits().contains(unit) ?
+            boolean explore = !scripted && random.nextDouble() < parameters.epsilonOffenseMovement;
+            FilteredActionsCache.Signature signature = getFilteringSignature(unit, unitActions, explore);
+            Pair<List<UnitAction>, float[]> cachedActions = getCachedActions(signature);
+            if (cachedActions != null) return cachedActions;
+
+            PathFinding pathFinder = situationalGroupsMonitor.isFrontLineUnit(unit) ?
                     parameters.frontLinePathFinder : parameters.offensePathFinder;
 
-            OffenseManager offenseManager = new OffenseManager(stateMonitor, pathFinder, unit, unitActions);
-            return offenseManager.filterActions(parameters.maxTargetsOnOffense, parameters.maxEscapes, parameters.offenseTargetMode,
-                    parameters.epsilonOffenseMovement, parameters.fixedTarget, parameters.shuffleActions);
+            OffenseManager offenseManager = new OffenseManager(stateMonitor, pathFinder, unit, unitActions, random);
+            offenseManager.filterActions(parameters.maxTargetsOnOffense, parameters.maxEscapes, parameters.offenseTargetMode,
+                    explore ? 1.0f : 0.0f, parameters.fixedTarget, parameters.fixedTargetFlowFields,
+                    parameters.shuffleActions, filteredActions);
+            return cacheActions(signature, offenseManager, filteredActions);
         }
 
         // The unit is a barracks.
         if (stateMonitor.getPlayerBarracks().contains(unit)) {
 
-            TrainingManager trainingManager = new TrainingManager(stateMonitor, functionalGroupsMonitor, unit, unitActions);
-            return trainingManager.filterBarracksActions(
+            FilteredActionsCache.Signature signature = getFilteringSignature(unit, unitActions, false);
+            Pair<List<UnitAction>, float[]> cachedActions = getCachedActions(signature);
+            if (cachedActions != null) return cachedActions;
+
+            TrainingManager trainingManager = new TrainingManager(stateMonitor, functionalGroupsMonitor, unit, unitActions,
+                    random);
+            trainingManager.filterBarracksActions(
                     parameters.maxDefenseLights, parameters.maxDefenseRanged, parameters.maxDefenseHeavies,
                     parameters.maxOffenseLights, parameters.maxOffenseRanged, parameters.maxOffenseHeavies,
                     parameters.maxTrainActionsChosen, parameters.trainSide, parameters.isolatedTrainScanWidth,
-                    parameters.isolatedTrainScanDepth, parameters.isolatedTrainMaxOccupiedCells, parameters.shuffleActions);
+                    parameters.isolatedTrainScanDepth, parameters.isolatedTrainMaxOccupiedCells, parameters.shuffleActions,
+                    filteredActions);
+            return cacheActions(signature, trainingManager, filteredActions);
         }
 
         // The unit is a base.
         if (stateMonitor.getPlayerBases().contains(unit)) {
 
-            TrainingManager trainingManager = new TrainingManager(stateMonitor, functionalGroupsMonitor, unit, unitActions);
-            return trainingManager.filterBaseActions(
+            FilteredActionsCache.Signature signature = getFilteringSignature(unit, unitActions, false);
+            Pair<List<UnitAction>, float[]> cachedActions = getCachedActions(signature);
+            if (cachedActions != null) return cachedActions;
+
+            TrainingManager trainingManager = new TrainingManager(stateMonitor, functionalGroupsMonitor, unit, unitActions,
+                    random);
+            trainingManager.filterBaseActions(
                     parameters.maxHarvesters, parameters.maxDefenseWorkers, parameters.maxOffenseWorkers,
                     parameters.maxTrainActionsChosen, parameters.trainSide, parameters.isolatedTrainScanWidth,
-                    parameters.isolatedTrainScanDepth, parameters.isolatedTrainMaxOccupiedCells, parameters.shuffleActions);
+                    parameters.isolatedTrainScanDepth, parameters.isolatedTrainMaxOccupiedCells, parameters.shuffleActions,
+                    filteredActions);
+            return cacheActions(signature, trainingManager, filteredActions);
         }
 
-        return unitActions;
+        return new Pair<>(unitActions, null);
+    }
+
+    /**
+     * Returns the cached filtered actions and priors matching the signature, null if there are none or if caching is
+     * disabled.
+     */
+    private Pair<List<UnitAction>, float[]> getCachedActions(FilteredActionsCache.Signature signature) {
+        return signature == null ? null : parameters.filteredActionsCache.get(signature);
+    }
+
+    /**
+     * Gets the priors of the filtered actions from their manager if enabled, and caches both unless the manager made
+     * random choices while producing them.
+     *
+     * @return The filtered actions and their priors.
+     */
+    private Pair<List<UnitAction>, float[]> cacheActions(FilteredActionsCache.Signature signature, HeuristicsManager manager,
+                                                         List<UnitAction> filteredActions) {
+        float[] actionPriors = isPriorsEnabled() ? manager.getPriors(filteredActions) : null;
+        if (signature != null && manager.isCacheable())
+            parameters.filteredActionsCache.put(signature, filteredActions, actionPriors);
+        return new Pair<>(filteredActions, actionPriors);
+    }
+
+    /**
+     * Builds the signature identifying the inputs of a unit's heuristic filtering: the unit's own state, its role and
+     * front-line status, the exploration draw, its possible actions, the occupancy of its local region, its closest
+     * opponent units, and the state-wide inputs (structures, group sizes and targets close to the base).
+     *
+     * @param unit The unit in question.
+     * @param unitActions All the possible unit-actions of the unit.
+     * @param explore The outcome of the exploration draw.
+     * @return The signature, null if caching is disabled.
+     */
+    private FilteredActionsCache.Signature getFilteringSignature(Unit unit, List<UnitAction> unitActions, boolean explore) {
+
+        if (!parameters.cacheFilteredActions)
+            return null;
+
+        FilteredActionsCache.Signature signature = new FilteredActionsCache.Signature(getStateSignature());
+
+        signature.add(unit.getType().ID).add(unit.getX()).add(unit.getY()).add(unit.getHitPoints())
+                .add(unit.getResources()).add(functionalGroupsMonitor.getRole(unit))
+                .add(situationalGroupsMonitor.isFrontLineUnit(unit) ? 1 : 0).add(explore ? 1 : 0);
+
+        for (UnitAction unitAction : unitActions)
+            signature.add(unitAction.getType()).add(unitAction.getDirection())
+                    .add(unitAction.getType() == UnitAction.TYPE_ATTACK_LOCATION ?
+                            unitAction.getLocationX() + unitAction.getLocationY() * stateMonitor.getMapWidth() : -1)
+                    .add(unitAction.getUnitType() != null ? unitAction.getUnitType().ID : -1);
+
+        // The local region covers the isolated building and training scans, and the first steps of any path.
+        int radius = 2 + Math.max(parameters.isolatedBuildScanRadius,
+                Math.max(parameters.isolatedTrainScanWidth, parameters.isolatedTrainScanDepth));
+        long localOccupancy = 0;
+        for (Unit other : stateMonitor.getPhysicalGameState().getUnits())
+            if (Math.abs(other.getX() - unit.getX()) <= radius && Math.abs(other.getY() - unit.getY()) <= radius)
+                localOccupancy += mix(other.getX() + other.getY() * stateMonitor.getMapWidth(), other.getType().ID);
+        for (int position : stateMonitor.getResourceUsage().getPositionsUsed())
+            if (Math.abs(position % stateMonitor.getMapWidth() - unit.getX()) <= radius &&
+                    Math.abs(position / stateMonitor.getMapWidth() - unit.getY()) <= radius)
+                localOccupancy += mix(position, -1);
+        signature.add(localOccupancy);
+
+        if (unit.getType().canMove)
+            for (Unit target : stateMonitor.getOpponentUnitsClosestTo(unit, getMaxTargets()))
+                signature.add(target.getID()).add(target.getX()).add(target.getY());
+
+        return signature;
+    }
+
+    /**
+     * Returns the part of the filtering signature shared by all the units of the state, computing it on first use.
+     */
+    private FilteredActionsCache.Signature getStateSignature() {
+
+        if (stateSignature == null) {
+            FilteredActionsCache.Signature signature = new FilteredActionsCache.Signature();
+            signature.add(stateMonitor.getPlayerID()).add(TerrainHash.of(stateMonitor.getPhysicalGameState()))
+                    .add(isPriorsEnabled() ? 1 : 0);
+
+            long structures = 0;
+            for (Unit other : stateMonitor.getPhysicalGameState().getUnits())
+                if (!other.getType().canMove)
+                    structures += mix(other.getID(), other.getX() + other.getY() * stateMonitor.getMapWidth());
+            signature.add(structures);
+
+            signature.add(stateMonitor.getPlayerBases().size()).add(stateMonitor.getFuturePlayerBases())
+                    .add(stateMonitor.getPlayerBarracks().size()).add(stateMonitor.getFuturePlayerBarracks())
+                    .add(stateMonitor.getFuturePlayerLights()).add(stateMonitor.getFuturePlayerRanged())
+                    .add(stateMonitor.getFuturePlayerHeavies())
+                    .add(functionalGroupsMonitor.getHarvestUnits().size())
+                    .add(functionalGroupsMonitor.getDefenseWorkers().size()).add(functionalGroupsMonitor.getOffenseWorkers().size())
+                    .add(functionalGroupsMonitor.getDefenseLights().size()).add(functionalGroupsMonitor.getOffenseLights().size())
+                    .add(functionalGroupsMonitor.getDefenseRanged().size()).add(functionalGroupsMonitor.getOffenseRanged().size())
+                    .add(functionalGroupsMonitor.getDefenseHeavies().size()).add(functionalGroupsMonitor.getOffenseHeavies().size());
+
+            if (!stateMonitor.getPlayerBases().isEmpty())
+                for (Unit target : stateMonitor.getOpponentUnitsClosestTo(stateMonitor.getPlayerBases().get(0), getMaxTargets()))
+                    signature.add(target.getID()).add(target.getX()).add(target.getY());
+
+            stateSignature = signature;
+        }
+        return stateSignature;
+    }
+
+    private int getMaxTargets() {
+        return Math.max(parameters.maxTargetsOnDefense, parameters.maxTargetsOnOffense);
+    }
+
+    private static long mix(long first, long second) {
+        long hash = (first * 31 + second) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    public FunctionalGroupsMonitor getFunctionalGroupsMonitor() {
+        return functionalGroupsMonitor;
     }
 
     public List<Pair<Unit, List<UnitAction>>> getChoices() {
         return choices;
     }
 
+    public List<float[]> getPriors() {
+        return priors;
+    }
+
     public long getSize() {
         return size;
     }
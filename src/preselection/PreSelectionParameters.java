@@ -16,7 +16,7 @@ import java.lang.reflect.InvocationTargetException;
 public class PreSelectionParameters {
 
     // PATH FINDERS:
-    public static final int A_STAR_PF = 0, FLOOD_FILL_PF = 1, BFS_PF = 2, GREEDY_PF = 3;
+    public static final int A_STAR_PF = 0, FLOOD_FILL_PF = 1, BFS_PF = 2, GREEDY_PF = 3, DISTANCE_FIELD_PF = 4;
 
     // THE DESIRED ARMY COMPOSITION ***********************************************************************************
     // The limits imposed on the number of possible units, of each type.
@@ -80,6 +80,8 @@ public class PreSelectionParameters {
 
     // A fixed target that is always added to the targeted units. Can be the opponent base or barracks.
     int fixedTarget = OffenseManager.FIXED_TARGET_ALL_STRUCTURES;
+    // Direct the units chasing a fixed target using flow fields shared by all units, instead of one path search each.
+    boolean fixedTargetFlowFields = false;
 
     // PRODUCTION : Building / Training ******************************************************************************
     // The Barracks building location. HARVESTERS:------------------------------
@@ -129,12 +131,26 @@ public class PreSelectionParameters {
     int defaultWaitDuration = 10;
     // Shuffles the returned actions.
     boolean shuffleActions = false;
+    // Reuses the filtered actions of units whose surroundings did not change, across nodes and frames. An
+    // approximation: the signature covers the unit's local region, the terrain and the state-wide inputs, while path
+    // finding and target choices may depend on units farther away. Off by default.
+    boolean cacheFilteredActions = false;
+    // Filters the units in parallel, on the common fork-join pool, once they are more than this. -1 to disable.
+    int parallelGenerationThreshold = -1;
+    // Weight, in virtual visits, of the managers' action priors in the local MABs of the search. 0 to disable.
+    float priorVirtualVisits = 0;
+    // Only front-line units and structures are searched, the other units are fixed to their manager's top choice.
+    boolean frontLineOnlySearch = false;
+
+    // The filtered actions shared by all the action generators using these parameters. Not a parameter.
+    FilteredActionsCache filteredActionsCache = new FilteredActionsCache();
 
     // The path finding algorithm used to direct movement, for each unit group.
-    PathFinding harvestPathFinder = new AStarPathFinding(); /*new FloodFillPathFinding();*/ /*new BFSPathFinding();*/ /*new GreedyPathFinding();*/
-    PathFinding defensePathFinder = new FloodFillPathFinding();
-    PathFinding offensePathFinder = new AStarPathFinding();
-    PathFinding frontLinePathFinder = new FloodFillPathFinding();
+    // Search-based path finders are wrapped in a CachedPathFinding.
+    PathFinding harvestPathFinder = getPathFinder(A_STAR_PF); /*FLOOD_FILL_PF*/ /*BFS_PF*/ /*GREEDY_PF*/
+    PathFinding defensePathFinder = getPathFinder(FLOOD_FILL_PF);
+    PathFinding offensePathFinder = getPathFinder(A_STAR_PF);
+    PathFinding frontLinePathFinder = getPathFinder(FLOOD_FILL_PF);
 
     /**
      * Default constructor, creates a PreSelectionParameters instance with the default parameter values.
@@ -232,15 +248,17 @@ public class PreSelectionParameters {
     private PathFinding getPathFinder(int pathFinderIndex) {
         switch (pathFinderIndex) {
             case A_STAR_PF:
-                return new AStarPathFinding();
+                return new CachedPathFinding(AStarPathFinding::new);
             case FLOOD_FILL_PF:
-                return new FloodFillPathFinding();
+                return new CachedPathFinding(FloodFillPathFinding::new);
             case BFS_PF:
-                return new BFSPathFinding();
+                return new CachedPathFinding(BFSPathFinding::new);
             case GREEDY_PF:
-                return new GreedyPathFinding();
+                return new CachedPathFinding(GreedyPathFinding::new);
+            case DISTANCE_FIELD_PF: // Already cached.
+                return new DistanceFieldPathFinding();
         }
-        return new AStarPathFinding();
+        return new CachedPathFinding(AStarPathFinding::new);
     }
 
     private int getPathFinderIndex(PathFinding pathFinder) {
@@ -249,6 +267,7 @@ public class PreSelectionParameters {
             case "FloodFillPathFinding": return 1;
             case "BFSPathFinding": return 2;
             case "GreedyPathFinding": return 3;
+            case "DistanceFieldPathFinding": return 4;
         }
         return 0;
     }
@@ -261,7 +280,9 @@ public class PreSelectionParameters {
                 " maxDefenseLights:" + maxDefenseLights + " maxDefenseRanged:" + maxDefenseRanged +
                 " maxDefenseHeavies:" + maxDefenseHeavies + "\n          priority: " +
                 (priority == FunctionalGroupsMonitor.DEFENSE_PRIORITY ? "DEFENSE(0)" : "OFFENSE(1)") +
-                " defaultWaitDuration:" + defaultWaitDuration;
+                " defaultWaitDuration:" + defaultWaitDuration + " cacheFilteredActions:" + cacheFilteredActions +
+                " parallelGenerationThreshold:" + parallelGenerationThreshold +
+                " priorVirtualVisits:" + priorVirtualVisits + " frontLineOnlySearch:" + frontLineOnlySearch;
 
         output += "\n[DEF]:    horizontalDistanceFromBase:" + horizontalDistanceFromBase + " verticalDistanceFromBase:" + verticalDistanceFromBase +
                 " radiusFromBase:" + radiusFromBase + " maxTargetsOnDefense:" + maxTargetsOnDefense + " defenseMode:" +
@@ -273,7 +294,7 @@ public class PreSelectionParameters {
 
         output += "\n[OFF]:    maxTargetsOnOffense:" + maxTargetsOnOffense + " maxEscapes:" + maxEscapes +
                 " offenseTargetMode:" + offenseModeToStr() + " fixedTarget:" + fixedTargetToStr() +
-                " offensePathFinder:" + offensePathFinder.toString();
+                " fixedTargetFlowFields:" + fixedTargetFlowFields + " offensePathFinder:" + offensePathFinder.toString();
 
         output += "\n[HRV]:    harvestPathFinder:" + harvestPathFinder.toString();
 
@@ -299,6 +320,7 @@ public class PreSelectionParameters {
             case OffenseManager.TARGET_MIN_HP: return "MIN_HP(2)";
             case OffenseManager.TARGET_MAX_HP: return "MAX_HP(3)";
             case OffenseManager.TARGET_RANDOM: return "RANDOM(4)";
+            case OffenseManager.TARGET_FAVORABLE: return "FAVORABLE(5)";
         }
         return "NONE";
     }
@@ -345,6 +367,7 @@ public class PreSelectionParameters {
         clone.maxEscapes = this.maxEscapes;
         clone.offenseTargetMode = this.offenseTargetMode;
         clone.fixedTarget = this.fixedTarget;
+        clone.fixedTargetFlowFields = this.fixedTargetFlowFields;
 
         clone.buildLocation = this.buildLocation;
         clone.maxBuildActionsChosen = this.maxBuildActionsChosen;
@@ -368,19 +391,72 @@ public class PreSelectionParameters {
         clone.defaultWaitDuration = this.defaultWaitDuration;
 
         clone.shuffleActions = this.shuffleActions;
+        clone.cacheFilteredActions = this.cacheFilteredActions;
+        clone.parallelGenerationThreshold = this.parallelGenerationThreshold;
+        clone.priorVirtualVisits = this.priorVirtualVisits;
+        clone.frontLineOnlySearch = this.frontLineOnlySearch;
 
-        try {
-            clone.harvestPathFinder = this.harvestPathFinder.getClass().getConstructor().newInstance();
-            clone.offensePathFinder = this.offensePathFinder.getClass().getConstructor().newInstance();
-            clone.defensePathFinder = this.defensePathFinder.getClass().getConstructor().newInstance();
-            clone.frontLinePathFinder = this.frontLinePathFinder.getClass().getConstructor().newInstance();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        clone.harvestPathFinder = getPathFinder(getPathFinderIndex(this.harvestPathFinder));
+        clone.offensePathFinder = getPathFinder(getPathFinderIndex(this.offensePathFinder));
+        clone.defensePathFinder = getPathFinder(getPathFinderIndex(this.defensePathFinder));
+        clone.frontLinePathFinder = getPathFinder(getPathFinderIndex(this.frontLinePathFinder));
 
         return clone;
     }
 
+    /**
+     * Empties the path and filtered actions caches. Called at the start of every game, since the parameters, and their
+     * caches, outlive it.
+     */
+    public void clearCaches() {
+        filteredActionsCache.clear();
+        for (PathFinding pathFinder : new PathFinding[]{harvestPathFinder, defensePathFinder, offensePathFinder, frontLinePathFinder})
+            if (pathFinder instanceof CachedPathFinding)
+                ((CachedPathFinding) pathFinder).clear();
+            else if (pathFinder instanceof DistanceFieldPathFinding)
+                ((DistanceFieldPathFinding) pathFinder).clear();
+    }
+
+    /**
+     * Returns the number of path finding queries answered from the path caches.
+     * @return The number of cache hits, summed over all the unit groups' path finders.
+     */
+    public long pathCacheHits() {
+        long hits = 0;
+        for (PathFinding pathFinder : new PathFinding[]{harvestPathFinder, defensePathFinder, offensePathFinder, frontLinePathFinder})
+            if (pathFinder instanceof CachedPathFinding)
+                hits += ((CachedPathFinding) pathFinder).hits();
+        return hits;
+    }
+
+    /**
+     * Returns the number of path finding queries that had to be searched.
+     * @return The number of cache misses, summed over all the unit groups' path finders.
+     */
+    public long pathCacheMisses() {
+        long misses = 0;
+        for (PathFinding pathFinder : new PathFinding[]{harvestPathFinder, defensePathFinder, offensePathFinder, frontLinePathFinder})
+            if (pathFinder instanceof CachedPathFinding)
+                misses += ((CachedPathFinding) pathFinder).misses();
+        return misses;
+    }
+
+    /**
+     * Returns the number of units whose filtered actions were found in the filtered actions cache.
+     * @return The number of cache hits.
+     */
+    public long filterCacheHits() {
+        return filteredActionsCache.hits();
+    }
+
+    /**
+     * Returns the number of units whose actions had to be filtered by the heuristics managers.
+     * @return The number of cache misses.
+     */
+    public long filterCacheMisses() {
+        return filteredActionsCache.misses();
+    }
+
     public String toJSONStr() throws Exception {
         return new ObjectMapper().writeValueAsString(this);
     }
@@ -605,6 +681,14 @@ public class PreSelectionParameters {
         this.fixedTarget = fixedTarget;
     }
 
+    public boolean isFixedTargetFlowFields() {
+        return fixedTargetFlowFields;
+    }
+
+    public void setFixedTargetFlowFields(boolean fixedTargetFlowFields) {
+        this.fixedTargetFlowFields = fixedTargetFlowFields;
+    }
+
     public int getBuildLocation() {
         return buildLocation;
     }
@@ -749,6 +833,38 @@ public class PreSelectionParameters {
         this.shuffleActions = shuffleActions;
     }
 
+    public boolean isCacheFilteredActions() {
+        return cacheFilteredActions;
+    }
+
+    public void setCacheFilteredActions(boolean cacheFilteredActions) {
+        this.cacheFilteredActions = cacheFilteredActions;
+    }
+
+    public int getParallelGenerationThreshold() {
+        return parallelGenerationThreshold;
+    }
+
+    public void setParallelGenerationThreshold(int parallelGenerationThreshold) {
+        this.parallelGenerationThreshold = parallelGenerationThreshold;
+    }
+
+    public float getPriorVirtualVisits() {
+        return priorVirtualVisits;
+    }
+
+    public void setPriorVirtualVisits(float priorVirtualVisits) {
+        this.priorVirtualVisits = priorVirtualVisits;
+    }
+
+    public boolean isFrontLineOnlySearch() {
+        return frontLineOnlySearch;
+    }
+
+    public void setFrontLineOnlySearch(boolean frontLineOnlySearch) {
+        this.frontLineOnlySearch = frontLineOnlySearch;
+    }
+
     public int getHarvestPathFinder() {
         return getPathFinderIndex(this.harvestPathFinder);
     }
@@ -2,8 +2,10 @@ package preselection;
 
 import rts.units.Unit;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class SituationalGroupsMonitor {
 
@@ -13,8 +15,9 @@ public class SituationalGroupsMonitor {
 
     StateMonitor stateMonitor;
 
-    List<Unit> frontLineUnits = new LinkedList<>();
-    List<Unit> backUnits = new LinkedList<>();
+    List<Unit> frontLineUnits = new ArrayList<>();
+    Set<Long> frontLineUnitIDs = new HashSet<>(); // For constant time membership checks.
+    List<Unit> backUnits; // Built on first request.
 
     public SituationalGroupsMonitor(StateMonitor stateMonitor, int selectionMode, int maxUnits, int tacticalDistance) {
         this.stateMonitor = stateMonitor;
@@ -41,56 +44,61 @@ public class SituationalGroupsMonitor {
     }
 
     /**
-     * Selects own units that have an opponent unit within their attack range.
+     * Selects own units that have an opponent unit within their attack range. The presence of opponent units is
+     * checked in constant time using the opponent's presence map.
      * @param maxUnits The maximum number of units to considered.
      * @param tacticalDistance A distance added to the attackRange in order to allow for tactical reasoning apriori.
      */
     private void selectFrontLineUnitsByPlayerRange(int maxUnits, int tacticalDistance) {
 
+        InfluenceMap opponentPresence = stateMonitor.getOpponentPresenceMap();
         for (Unit playerUnit : stateMonitor.getPlayerMobileUnits()) {
-            for (Unit opponentUnit : stateMonitor.getOpponentMobileUnits()) {
-                if (Math.abs(opponentUnit.getX() - playerUnit.getX()) <= playerUnit.getAttackRange() + tacticalDistance &&
-                    Math.abs(opponentUnit.getY() - playerUnit.getY()) <= playerUnit.getAttackRange() + tacticalDistance) {
-
-                    if (maxUnits < 0 || frontLineUnits.size() < maxUnits)
-                        frontLineUnits.add(playerUnit);
-                    break;
-                }
-            }
             if (maxUnits >= 0 && frontLineUnits.size() >= maxUnits)
                 break;
+            if (opponentPresence.countInSquare(playerUnit.getX(), playerUnit.getY(),
+                    playerUnit.getAttackRange() + tacticalDistance) > 0)
+                addFrontLineUnit(playerUnit);
         }
     }
 
     /**
-     * Selects own units that are in the attack range of an opponent unit.
+     * Selects own units that are in the attack range of an opponent unit. The opponent's threat map is looked up
+     * once per unit.
      * @param maxUnits The maximum number of units to considered.
      * @param tacticalDistance A distance added to the attackRange in order to allow for tactical reasoning apriori.
      */
     private void selectFrontLineUnitsByOpponentRange(int maxUnits, int tacticalDistance) {
 
-        for (Unit opponentUnit : stateMonitor.getOpponentMobileUnits()) {
-            for (Unit playerUnit : stateMonitor.getPlayerMobileUnits()) {
-                if (!frontLineUnits.contains(playerUnit) &&
-                    (Math.abs(playerUnit.getX() - opponentUnit.getX()) <= opponentUnit.getAttackRange() + tacticalDistance &&
-                     Math.abs(playerUnit.getY() - opponentUnit.getY()) <= opponentUnit.getAttackRange() + tacticalDistance))
-
-                    if (maxUnits < 0 || frontLineUnits.size() < maxUnits)
-                        frontLineUnits.add(playerUnit);
-                    else
-                        break;
-            }
+        InfluenceMap opponentThreat = stateMonitor.getOpponentThreatMap(tacticalDistance);
+        for (Unit playerUnit : stateMonitor.getPlayerMobileUnits()) {
             if (maxUnits >= 0 && frontLineUnits.size() >= maxUnits)
                 break;
+            if (opponentThreat.getInfluence(playerUnit.getX(), playerUnit.getY()) > 0)
+                addFrontLineUnit(playerUnit);
         }
     }
 
+    private void addFrontLineUnit(Unit unit) {
+        frontLineUnits.add(unit);
+        frontLineUnitIDs.add(unit.getID());
+    }
+
+    /**
+     * Checks whether the given unit belongs to the front-line.
+     * @param unit The unit in question.
+     * @return True if the unit is a front-line unit.
+     */
+    public boolean isFrontLineUnit(Unit unit) {
+        return frontLineUnitIDs.contains(unit.getID());
+    }
+
     /**
      * Returns the list of Back units (non-front-line units)
      * @return A Unit list.
      */
     public List<Unit> getBackUnits() {
-        selectBackUnits();
+        if (backUnits == null)
+            selectBackUnits();
         return backUnits;
     }
 
@@ -98,9 +106,11 @@ public class SituationalGroupsMonitor {
      * The remaining unselected units that are not in the front-line units list, are all considered back units.
      */
     private void selectBackUnits() {
+        List<Unit> units = new ArrayList<>();
         for (Unit unit : stateMonitor.getAllPlayerUnits()) {
-            if (!frontLineUnits.contains(unit)) backUnits.add(unit);
+            if (!isFrontLineUnit(unit)) units.add(unit);
         }
+        backUnits = units;
     }
 
     public List<Unit> getFrontLineUnits() {
@@ -37,6 +37,21 @@ public class StateMonitor {
     // Resource deposits group.
     List<Unit> allResourceDeposits = new ArrayList<>();
 
+    // Mobile units and influence maps, built on first use.
+    List<Unit> playerMobileUnits;
+    List<Unit> opponentMobileUnits;
+    InfluenceMap opponentPresenceMap;
+    InfluenceMap playerInfluenceMap;
+    InfluenceMap opponentThreatMap;
+    int playerInfluenceDistance;
+    int opponentThreatDistance;
+
+    // Occupied cells weighted by mobility (mobile units: 1, walls and immobile units: 2), built on first use.
+    InfluenceMap occupancyMap;
+
+    // Flow fields towards targets, by target position and range, shared by all the units of this state.
+    Map<Long, DistanceField> flowFields;
+
     // The number of player units under construction/training, by type.
     int futurePlayerBases = 0;
     int futurePlayerBarracks = 0;
@@ -184,29 +199,148 @@ public class StateMonitor {
     }
 
     /**
-     * Groups and returns all mobile units belonging to the player.
+     * Groups and returns all mobile units belonging to the player. The list is built once and shared, it should not
+     * be modified.
      * @return A Unit list.
      */
-    public List<Unit> getPlayerMobileUnits() {
-        List<Unit> mobileUnits = new LinkedList<>();
-        mobileUnits.addAll(playerWorkers);
-        mobileUnits.addAll(playerLights);
-        mobileUnits.addAll(playerRanged);
-        mobileUnits.addAll(playerHeavies);
-        return mobileUnits;
+    public synchronized List<Unit> getPlayerMobileUnits() {
+        if (playerMobileUnits == null) {
+            List<Unit> mobileUnits = new ArrayList<>(playerWorkers.size() + playerLights.size() +
+                    playerRanged.size() + playerHeavies.size());
+            mobileUnits.addAll(playerWorkers);
+            mobileUnits.addAll(playerLights);
+            mobileUnits.addAll(playerRanged);
+            mobileUnits.addAll(playerHeavies);
+            playerMobileUnits = mobileUnits;
+        }
+        return playerMobileUnits;
     }
 
     /**
-     * Groups and returns all mobile units belonging to the opponent.
-     * @return
+     * Groups and returns all mobile units belonging to the opponent. The list is built once and shared, it should not
+     * be modified.
+     * @return A Unit list.
+     */
+    public synchronized List<Unit> getOpponentMobileUnits() {
+        if (opponentMobileUnits == null) {
+            List<Unit> mobileUnits = new ArrayList<>(opponentWorkers.size() + opponentLights.size() +
+                    opponentRanged.size() + opponentHeavies.size());
+            mobileUnits.addAll(opponentWorkers);
+            mobileUnits.addAll(opponentLights);
+            mobileUnits.addAll(opponentRanged);
+            mobileUnits.addAll(opponentHeavies);
+            opponentMobileUnits = mobileUnits;
+        }
+        return opponentMobileUnits;
+    }
+
+    /**
+     * Returns the presence map of the opponent's mobile units. Its countInSquare method gives the number of opponent
+     * mobile units inside any square area.
+     * @return The presence map.
+     */
+    public synchronized InfluenceMap getOpponentPresenceMap() {
+        if (opponentPresenceMap == null)
+            opponentPresenceMap = InfluenceMap.fromPositions(getMapWidth(), getMapHeight(), getOpponentMobileUnits());
+        return opponentPresenceMap;
+    }
+
+    /**
+     * Returns the influence map of the player's mobile units, each one covering its attack range plus the given
+     * tactical distance.
+     * @param tacticalDistance The distance added to the attack range.
+     * @return The influence map.
+     */
+    public synchronized InfluenceMap getPlayerInfluenceMap(int tacticalDistance) {
+        if (playerInfluenceMap == null || playerInfluenceDistance != tacticalDistance) {
+            playerInfluenceMap = InfluenceMap.fromAttackRanges(getMapWidth(), getMapHeight(),
+                    getPlayerMobileUnits(), tacticalDistance);
+            playerInfluenceDistance = tacticalDistance;
+        }
+        return playerInfluenceMap;
+    }
+
+    /**
+     * Returns the threat map of the opponent's mobile units, each one covering its attack range plus the given
+     * tactical distance. A cell with a positive value is threatened by at least one opponent unit.
+     * @param tacticalDistance The distance added to the attack range.
+     * @return The threat map.
+     */
+    public synchronized InfluenceMap getOpponentThreatMap(int tacticalDistance) {
+        if (opponentThreatMap == null || opponentThreatDistance != tacticalDistance) {
+            opponentThreatMap = InfluenceMap.fromAttackRanges(getMapWidth(), getMapHeight(),
+                    getOpponentMobileUnits(), tacticalDistance);
+            opponentThreatDistance = tacticalDistance;
+        }
+        return opponentThreatMap;
+    }
+
+    /**
+     * Returns the occupancy map of the state. Cells occupied by mobile units weigh 1, walls and cells occupied by
+     * bases, barracks or resource deposits weigh 2, because of their immobility. The map answers rectangular scans
+     * in constant time.
+     * @return The occupancy map.
      */
-    public List<Unit> getOpponentMobileUnits() {
-        List<Unit> mobileUnits = new LinkedList<>();
-        mobileUnits.addAll(opponentWorkers);
-        mobileUnits.addAll(opponentLights);
-        mobileUnits.addAll(opponentRanged);
-        mobileUnits.addAll(opponentHeavies);
-        return mobileUnits;
+    public synchronized InfluenceMap getOccupancyMap() {
+        if (occupancyMap == null) {
+            PhysicalGameState physicalGameState = getPhysicalGameState();
+            int width = getMapWidth(), height = getMapHeight();
+            int[] weights = new int[width * height];
+
+            for (int y = 0; y < height; y++)
+                for (int x = 0; x < width; x++)
+                    if (physicalGameState.getTerrain(x, y) == PhysicalGameState.TERRAIN_WALL)
+                        weights[x + y * width] = 2;
+
+            for (Unit unit : physicalGameState.getUnits())
+                weights[unit.getX() + unit.getY() * width] = unit.getType().canMove ? 1 : 2;
+
+            occupancyMap = InfluenceMap.fromWeights(width, height, weights);
+        }
+        return occupancyMap;
+    }
+
+    /**
+     * Returns the flow field leading to the given target's range, computed over the current occupancy of the map
+     * (walls, units and reserved positions). Each field is computed once per state and shared by all the units
+     * heading to the same target.
+     * @param target The target unit.
+     * @param range The range around the target to reach.
+     * @return The flow field.
+     */
+    public synchronized DistanceField getFlowField(Unit target, int range) {
+        if (flowFields == null)
+            flowFields = new HashMap<>();
+
+        long key = ((long) (target.getX() + target.getY() * getMapWidth()) << 32) | (range & 0xFFFFFFFFL);
+        DistanceField flowField = flowFields.get(key);
+        if (flowField == null) {
+            flowField = new DistanceField(getMapWidth(), getMapHeight(), getOccupiedCells(),
+                    target.getX(), target.getY(), range);
+            flowFields.put(key, flowField);
+        }
+        return flowField;
+    }
+
+    /**
+     * Marks the cells that are not free, or already reserved by a unit's action.
+     * @return The occupied cells, indexed by x + y * width.
+     */
+    private boolean[] getOccupiedCells() {
+        int width = getMapWidth(), height = getMapHeight();
+        boolean[][] freeCells = getPhysicalGameState().getAllFree();
+        boolean[] occupiedCells = new boolean[width * height];
+
+        for (int x = 0; x < width; x++)
+            for (int y = 0; y < height; y++)
+                occupiedCells[x + y * width] = !freeCells[x][y];
+
+        ResourceUsage resourceUsage = getResourceUsage();
+        if (resourceUsage != null)
+            for (int position : resourceUsage.getPositionsUsed())
+                occupiedCells[position] = true;
+
+        return occupiedCells;
     }
 
     /**
@@ -264,15 +398,14 @@ public class StateMonitor {
      * Returns a list of random opponent units.
      *
      * @param maxUnits The maximum number of units to return.
+     * @param random The random generator.
      * @return A list of units.
      */
-    public List<Unit> getOpponentUnitsRandom(int maxUnits) {
+    public List<Unit> getOpponentUnitsRandom(int maxUnits, SplittableRandom random) {
 
         List<Unit> opponentUnits = new LinkedList<>(allOpponentUnits);
         List<Unit> randomOpponentUnits = new LinkedList<>();
 
-        Random random = new Random();
-
         if (opponentUnits.size() > maxUnits) {
             while (randomOpponentUnits.size() < maxUnits) {
                 randomOpponentUnits.add(
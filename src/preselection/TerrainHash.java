@@ -0,0 +1,51 @@
+package preselection;
+
+import rts.PhysicalGameState;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Hashes a map's size and walls, so that the caches kept across games never answer from another map's layout. The
+ * terrain does not change during a game, the hash of the last map seen by each thread is kept, and only computed again
+ * for another physical game state.
+ */
+public final class TerrainHash {
+
+    private static final ThreadLocal<Entry> lastEntry = ThreadLocal.withInitial(Entry::new);
+
+    private TerrainHash() {
+    }
+
+    /**
+     * Returns the hash of the map's size and walls.
+     *
+     * @param physicalGameState The map.
+     * @return The hash.
+     */
+    public static long of(PhysicalGameState physicalGameState) {
+        Entry entry = lastEntry.get();
+        if (entry.map.get() == physicalGameState)
+            return entry.hash;
+
+        int width = physicalGameState.getWidth(), height = physicalGameState.getHeight();
+        long hash = width * 31L + height;
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                if (physicalGameState.getTerrain(x, y) == PhysicalGameState.TERRAIN_WALL) {
+                    long wall = (x + y * width + 1) * 0x9E3779B97F4A7C15L;
+                    hash += wall ^ (wall >>> 31);
+                }
+
+        entry.map = new WeakReference<>(physicalGameState);
+        entry.hash = hash;
+        return hash;
+    }
+
+    /**
+     * The last physical game state hashed by a thread, and its hash.
+     */
+    private static final class Entry {
+        WeakReference<PhysicalGameState> map = new WeakReference<>(null);
+        long hash;
+    }
+}
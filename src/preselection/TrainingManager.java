@@ -3,9 +3,8 @@ package preselection;
 import rts.UnitAction;
 import rts.units.Unit;
 
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.SplittableRandom;
 
 public class TrainingManager extends HeuristicsManager {
 
@@ -15,8 +14,9 @@ public class TrainingManager extends HeuristicsManager {
 
     FunctionalGroupsMonitor groupsMonitor;
 
-    public TrainingManager(StateMonitor stateMonitor, FunctionalGroupsMonitor groupsMonitor, Unit unit, List<UnitAction> unitActions) {
-        super(stateMonitor, unit, unitActions);
+    public TrainingManager(StateMonitor stateMonitor, FunctionalGroupsMonitor groupsMonitor, Unit unit, List<UnitAction> unitActions,
+                           SplittableRandom random) {
+        super(stateMonitor, unit, unitActions, random);
         this.groupsMonitor = groupsMonitor;
     }
 
@@ -26,41 +26,38 @@ public class TrainingManager extends HeuristicsManager {
      * unit type are reached or not, if not, allow production.
      *
      * @param maxProduceActionsChosen The maximum number of produce actions to chose, per unit-type.
-     * @return A filtered unit-actions list.
+     * @param filteredActions The list receiving the filtered unit-actions.
      */
-    public List<UnitAction> filterBarracksActions(int maxDefenseLights, int maxDefenseRanged, int maxDefenseHeavies,
-                                                  int maxAttackLights, int maxAttackRanged, int maxAttackHeavies,
-                                                  int maxProduceActionsChosen, int trainingSide,
-                                                  int scanWidth, int scanDepth, int maxOccupiedCells,
-                                                  boolean shuffleActions) {
+    public void filterBarracksActions(int maxDefenseLights, int maxDefenseRanged, int maxDefenseHeavies,
+                                      int maxAttackLights, int maxAttackRanged, int maxAttackHeavies,
+                                      int maxProduceActionsChosen, int trainingSide,
+                                      int scanWidth, int scanDepth, int maxOccupiedCells,
+                                      boolean shuffleActions, List<UnitAction> filteredActions) {
 
-        List<UnitAction> filteredActions = new LinkedList<>();
-
-        if (!produceLightActions.isEmpty()) {
+        if (!actions.isEmpty(ActionDecomposition.PRODUCE_LIGHT)) {
             if ((maxDefenseLights == -1 || groupsMonitor.getDefenseLights().size() + stateMonitor.futurePlayerLights < maxDefenseLights) ||
                     (maxAttackLights == -1 || groupsMonitor.getOffenseLights().size() + stateMonitor.futurePlayerLights < maxAttackLights))
-                filteredActions.addAll(selectTrainingActions(trainingSide, produceLightActions, maxProduceActionsChosen,
-                        scanWidth, scanDepth, maxOccupiedCells));
+                selectTrainingActions(trainingSide, ActionDecomposition.PRODUCE_LIGHT, maxProduceActionsChosen,
+                        scanWidth, scanDepth, maxOccupiedCells, filteredActions);
         }
 
-        if (!produceRangedActions.isEmpty()) {
+        if (!actions.isEmpty(ActionDecomposition.PRODUCE_RANGED)) {
             if ((maxDefenseRanged == -1 || groupsMonitor.getDefenseRanged().size() + stateMonitor.futurePlayerRanged < maxDefenseRanged) ||
                     (maxAttackRanged == -1 || groupsMonitor.getOffenseRanged().size() + stateMonitor.futurePlayerRanged < maxAttackRanged))
-                filteredActions.addAll(selectTrainingActions(trainingSide, produceRangedActions, maxProduceActionsChosen,
-                        scanWidth, scanDepth, maxOccupiedCells));
+                selectTrainingActions(trainingSide, ActionDecomposition.PRODUCE_RANGED, maxProduceActionsChosen,
+                        scanWidth, scanDepth, maxOccupiedCells, filteredActions);
         }
 
-        if (!produceHeavyActions.isEmpty()) {
+        if (!actions.isEmpty(ActionDecomposition.PRODUCE_HEAVY)) {
             if ((maxDefenseHeavies == -1 || groupsMonitor.getDefenseHeavies().size() + stateMonitor.futurePlayerHeavies < maxDefenseHeavies) ||
                     (maxAttackHeavies == -1 || groupsMonitor.getOffenseHeavies().size() + stateMonitor.futurePlayerHeavies < maxAttackHeavies))
-                filteredActions.addAll(selectTrainingActions(trainingSide, produceHeavyActions, maxProduceActionsChosen,
-                        scanWidth, scanDepth, maxOccupiedCells));
+                selectTrainingActions(trainingSide, ActionDecomposition.PRODUCE_HEAVY, maxProduceActionsChosen,
+                        scanWidth, scanDepth, maxOccupiedCells, filteredActions);
         }
 
-        if (shuffleActions) Collections.shuffle(filteredActions);
+        if (shuffleActions) shuffle(filteredActions);
 
         filteredActions.add(waitAction);
-        return filteredActions;
     }
 
     /**
@@ -69,70 +66,69 @@ public class TrainingManager extends HeuristicsManager {
      * are not reached yet.
      *
      * @param maxProduceActionsChosen The maximum number of produce actions to chose.
-     * @return A filtered list of unit-actions.
+     * @param filteredActions The list receiving the filtered unit-actions.
      */
-    public List<UnitAction> filterBaseActions(int maxHarvesters, int maxDefenseWorkers, int maxAttackWorkers,
-                                              int maxProduceActionsChosen, int trainingSide,
-                                              int scanWidth, int scanDepth, int maxOccupiedCells,
-                                              boolean shuffleActions) {
-
-        List<UnitAction> filteredActions = new LinkedList<>();
+    public void filterBaseActions(int maxHarvesters, int maxDefenseWorkers, int maxAttackWorkers,
+                                  int maxProduceActionsChosen, int trainingSide,
+                                  int scanWidth, int scanDepth, int maxOccupiedCells,
+                                  boolean shuffleActions, List<UnitAction> filteredActions) {
 
-        if (!produceWorkerActions.isEmpty() && // Production/Training is possible. Check limits and perform.
+        if (!actions.isEmpty(ActionDecomposition.PRODUCE_WORKER) && // Production/Training is possible. Check limits and perform.
                 ((maxHarvesters == -1 || groupsMonitor.getHarvestUnits().size() < maxHarvesters) ||
                         (maxDefenseWorkers == -1 || groupsMonitor.getDefenseWorkers().size() < maxDefenseWorkers) ||
                         (maxAttackWorkers == -1 || groupsMonitor.getOffenseWorkers().size() < maxAttackWorkers)))
 
-            filteredActions.addAll(selectTrainingActions(trainingSide, produceWorkerActions, maxProduceActionsChosen,
-                    scanWidth, scanDepth, maxOccupiedCells));
+            selectTrainingActions(trainingSide, ActionDecomposition.PRODUCE_WORKER, maxProduceActionsChosen,
+                    scanWidth, scanDepth, maxOccupiedCells, filteredActions);
 
-        if (shuffleActions) Collections.shuffle(filteredActions);
+        if (shuffleActions) shuffle(filteredActions);
 
         filteredActions.add(waitAction);
-        return filteredActions;
     }
 
     /**
      * Selects the production unit-actions, depending on the training location chosen.
      *
-     * @param unitActions The production unit-actions possible.
+     * @param actionType The ActionDecomposition bucket of the production unit-actions possible.
      * @param maxChoices The maximum number of choices.
-     * @return A filtered unit-actions list.
+     * @param output The list receiving the selected unit-actions.
      */
-    private List<UnitAction> selectTrainingActions(int trainingSide, List<UnitAction> unitActions, int maxChoices,
-                                                   int scanWidth, int scanDepth, int maxOccupiedCells) {
+    private void selectTrainingActions(int trainingSide, int actionType, int maxChoices,
+                                       int scanWidth, int scanDepth, int maxOccupiedCells, List<UnitAction> output) {
         switch (trainingSide) {
             case TRAIN_AT_RANDOM_SIDE:
-                return choseRandomActionsFrom(unitActions, maxChoices);
+                choseRandomActionsFrom(actionType, maxChoices, output);
+                break;
             case TRAIN_AT_ISOLATED_SIDE:
-                return choseIsolatedTrainingPosition(unitActions, maxChoices, scanWidth, scanDepth, maxOccupiedCells);
+                choseIsolatedTrainingPosition(actionType, maxChoices, scanWidth, scanDepth, maxOccupiedCells, output);
+                break;
             default:
-                return unitActions;
+                actions.addAllTo(actionType, output);
         }
     }
 
     /**
-     * Selects actions from a list of possible unit training actions. The selection is done by comparing the number
+     * Selects actions from a type of possible unit training actions. The selection is done by comparing the number
      * of occupied cells in the direction chosen by a possible action, to a given maximum number of occupied cells. The
      * action with the lower occupied cells count in its direction is preserved. The occupied cells are counted by
      * scanning the direction of the action according to a width and depth.
      *
-     * @param unitActions The possible training unit actions.
+     * @param actionType The ActionDecomposition bucket of the possible training unit actions.
      * @param maxChoices The maximum number of actions to return.
      * @param scanWidth The width of the scanned zone, from both sides of the training direction.
      * @param scanDepth The depth of the scanned zone, directly across the training direction.
      * @param maxOccupiedCells The maximum number of occupied cells to consider.
-     * @return A list of UnitActions.
+     * @param output The list receiving the chosen unit actions.
      */
-    private List<UnitAction> choseIsolatedTrainingPosition(List<UnitAction> unitActions, int maxChoices,
-                                                           int scanWidth, int scanDepth, int maxOccupiedCells) {
+    private void choseIsolatedTrainingPosition(int actionType, int maxChoices, int scanWidth, int scanDepth,
+                                               int maxOccupiedCells, List<UnitAction> output) {
 
-        List<UnitAction> actions = new LinkedList<>(unitActions);
-        List<UnitAction> chosenActions = new LinkedList<>();
+        int chosenActions = 0;
 
-        for (UnitAction action : actions) {
+        for (int index = 0; index < actions.size(actionType); index++) {
+            UnitAction action = actions.get(actionType, index);
             int occupiedCells = 0;
-            if (chosenActions.size() < maxChoices) {
+            if (chosenActions < maxChoices) {
                 switch (action.getDirection()) {
                     case UnitAction.DIRECTION_UP:
                         occupiedCells = scanOccupiedCellsAround(unit.getX(), unit.getY() - 1,
@@ -152,12 +148,13 @@ public class TrainingManager extends HeuristicsManager {
                         break;
                 }
             } else
-                return chosenActions;
+                return;
 
-            if (occupiedCells <= maxOccupiedCells)
-                chosenActions.add(action);
+            if (occupiedCells <= maxOccupiedCells) {
+                output.add(action);
+                chosenActions++;
+            }
         }
-        return chosenActions;
     }
 
 }
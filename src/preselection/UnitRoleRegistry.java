@@ -0,0 +1,46 @@
+package preselection;
+
+import rts.units.Unit;
+
+/**
+ * Keeps the functional role (harvest, defense, offense) of the player's units from one game frame to the next.
+ * The registry is owned by the search algorithm, updated once per frame from the root's groups, and read by every
+ * FunctionalGroupsMonitor built during the search. This way a unit keeps its role between frames and between tree
+ * nodes, and only new units need to be assigned. Only the assigned roles are kept, stance switches made by the events
+ * and the heuristics are derived again from each frame's state.
+ */
+public class UnitRoleRegistry {
+
+    private UnitRoleTable roles = new UnitRoleTable(0);
+
+    /**
+     * Returns the role registered for the given unit.
+     * @param unit The unit in question.
+     * @return The registered role, UnitRoleTable.NO_ROLE for unknown units.
+     */
+    public byte getRole(Unit unit) {
+        return roles.getRole(unit);
+    }
+
+    /**
+     * Replaces the registered roles by the ones assigned in the given groups monitor, before any stance switch. Units
+     * that are no longer present in the monitored game state (dead units) are dropped from the registry.
+     * @param groupsMonitor The groups monitor of the root game state.
+     */
+    public void update(FunctionalGroupsMonitor groupsMonitor) {
+        UnitRoleTable updatedRoles = new UnitRoleTable(groupsMonitor.stateMonitor.getAllPlayerUnits().size());
+        for (Unit unit : groupsMonitor.stateMonitor.getAllPlayerUnits()) {
+            byte role = groupsMonitor.getAssignedRole(unit);
+            if (role != UnitRoleTable.NO_ROLE)
+                updatedRoles.setRole(unit, role);
+        }
+        roles = updatedRoles;
+    }
+
+    /**
+     * Forgets all the registered roles.
+     */
+    public void clear() {
+        roles = new UnitRoleTable(0);
+    }
+}
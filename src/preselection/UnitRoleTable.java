@@ -0,0 +1,146 @@
+package preselection;
+
+import rts.units.Unit;
+
+import java.util.Arrays;
+
+/**
+ * Maps unit IDs to their functional role using an open-addressing hash table. Role look-ups and role switches are
+ * done in constant time, and the number of units holding each role is kept up to date.
+ * Unit IDs are used as keys (instead of the Unit objects) so that the same table remains valid across cloned game
+ * states.
+ */
+public class UnitRoleTable {
+
+    // Functional roles ***********************************************************************************************
+    public static final byte NO_ROLE = 0; // The unit was not assigned to any group.
+    public static final byte HARVEST_ROLE = 1; // The unit belongs to the harvest group.
+    public static final byte DEFENSE_ROLE = 2; // The unit belongs to the defense group.
+    public static final byte OFFENSE_ROLE = 3; // The unit belongs to the offense group.
+
+    private static final long EMPTY_SLOT = -1; // Unit IDs are never negative.
+
+    private long[] unitIDs; // The keys, EMPTY_SLOT marks a free slot.
+    private byte[] roles; // The role of the unit in the same slot.
+    private int[] roleCounts = new int[4]; // Number of units per role.
+    private int size = 0; // Number of occupied slots.
+
+    /**
+     * Creates an empty table sized for the expected number of units.
+     * @param expectedUnits The number of units expected to be stored.
+     */
+    public UnitRoleTable(int expectedUnits) {
+        int capacity = 8;
+        while (capacity < expectedUnits * 2)
+            capacity <<= 1;
+        unitIDs = new long[capacity];
+        roles = new byte[capacity];
+        Arrays.fill(unitIDs, EMPTY_SLOT);
+    }
+
+    /**
+     * Creates a copy of the given table.
+     * @param table The table to copy.
+     */
+    public UnitRoleTable(UnitRoleTable table) {
+        unitIDs = table.unitIDs.clone();
+        roles = table.roles.clone();
+        roleCounts = table.roleCounts.clone();
+        size = table.size;
+    }
+
+    /**
+     * Returns the role of the given unit.
+     * @param unit The unit in question.
+     * @return The unit's role, NO_ROLE if none was assigned.
+     */
+    public byte getRole(Unit unit) {
+        return getRole(unit.getID());
+    }
+
+    /**
+     * Returns the role of the unit having the given ID.
+     * @param unitID The ID of the unit.
+     * @return The unit's role, NO_ROLE if none was assigned.
+     */
+    public byte getRole(long unitID) {
+        int slot = findSlot(unitID);
+        return unitIDs[slot] == unitID ? roles[slot] : NO_ROLE;
+    }
+
+    /**
+     * Assigns a role to the given unit, replacing its previous role if any.
+     * @param unit The unit in question.
+     * @param role The new role.
+     * @return The previous role of the unit.
+     */
+    public byte setRole(Unit unit, byte role) {
+        return setRole(unit.getID(), role);
+    }
+
+    /**
+     * Assigns a role to the unit having the given ID, replacing its previous role if any.
+     * @param unitID The ID of the unit.
+     * @param role The new role.
+     * @return The previous role of the unit.
+     */
+    public byte setRole(long unitID, byte role) {
+        int slot = findSlot(unitID);
+        byte previousRole = NO_ROLE;
+
+        if (unitIDs[slot] == unitID)
+            previousRole = roles[slot];
+        else {
+            unitIDs[slot] = unitID;
+            size++;
+        }
+
+        roles[slot] = role;
+        if (previousRole != NO_ROLE) roleCounts[previousRole]--;
+        if (role != NO_ROLE) roleCounts[role]++;
+
+        if (size * 2 > unitIDs.length)
+            grow();
+
+        return previousRole;
+    }
+
+    /**
+     * Returns the number of units currently holding the given role. Unassigned units are not counted.
+     * @param role The role in question.
+     * @return The number of units.
+     */
+    public int getCount(byte role) {
+        return roleCounts[role];
+    }
+
+    /**
+     * Returns the slot holding the given ID, or the empty slot where it should be inserted.
+     */
+    private int findSlot(long unitID) {
+        int mask = unitIDs.length - 1;
+        int slot = (int) ((unitID ^ (unitID >>> 32)) * 0x9E3779B9L) & mask;
+        while (unitIDs[slot] != EMPTY_SLOT && unitIDs[slot] != unitID)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Doubles the capacity of the table, re-inserting the current entries.
+     */
+    private void grow() {
+        long[] oldUnitIDs = unitIDs;
+        byte[] oldRoles = roles;
+
+        unitIDs = new long[oldUnitIDs.length * 2];
+        roles = new byte[oldRoles.length * 2];
+        Arrays.fill(unitIDs, EMPTY_SLOT);
+
+        for (int i = 0; i < oldUnitIDs.length; i++)
+            if (oldUnitIDs[i] != EMPTY_SLOT) {
+                int slot = findSlot(oldUnitIDs[i]);
+                unitIDs[slot] = oldUnitIDs[i];
+                roles[slot] = oldRoles[i];
+            }
+    }
+}
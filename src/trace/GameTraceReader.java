@@ -0,0 +1,248 @@
+package trace;
+
+import nmcts.FastForward;
+import nmcts.PackedUnitAction;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.Player;
+import rts.PlayerAction;
+import rts.UnitActionAssignment;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the traces written by GameTraceRecorder. Frames are read in order, each one applied over the previous one, and
+ * any frame can be rebuilt as a microRTS GameState, along with the action the bot returned in it. Seeking backwards
+ * reads the trace again from its start.
+ */
+public class GameTraceReader implements AutoCloseable {
+
+    private final String path;
+    private final UnitTypeTable unitTypeTable;
+    private DataInputStream input;
+
+    // Header
+    private int player;
+    private int width;
+    private int height;
+    private byte[] terrain;
+
+    // Current frame
+    private int frameIndex = -1; // Over the whole trace, headers excluded.
+    private int time;
+    private int[] resources;
+    private final Map<Long, int[]> units = new LinkedHashMap<>(); // type, player, x, y, resources and hit points.
+    private long[] assignedUnitIDs = new long[0];
+    private int[] assignedActions = new int[0]; // Packed.
+    private int[] assignmentTimes = new int[0];
+    private long[] actingUnitIDs = new long[0];
+    private int[] actions = new int[0]; // Packed.
+    private long decisionTime;
+    private long iterations;
+
+    /**
+     * @param path The trace file.
+     * @param unitTypeTable The unit type table of the recorded games.
+     * @throws IOException
+     */
+    public GameTraceReader(String path, UnitTypeTable unitTypeTable) throws IOException {
+        this.path = path;
+        this.unitTypeTable = unitTypeTable;
+        open();
+    }
+
+    private void open() throws IOException {
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+        frameIndex = -1;
+        units.clear();
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @return False at the end of the trace.
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int length;
+            try {
+                length = input.readInt();
+            } catch (EOFException endOfTrace) {
+                return false;
+            }
+            byte type = input.readByte();
+            if (type == GameTraceRecorder.HEADER)
+                readHeader();
+            else if (type == GameTraceRecorder.FRAME) {
+                readFrame();
+                frameIndex++;
+                return true;
+            } else // Unknown record, skipped.
+                input.skipBytes(length - 1);
+        }
+    }
+
+    /**
+     * Moves to the given frame.
+     *
+     * @param index The frame's index, over the whole trace.
+     * @return False if the trace has fewer frames.
+     * @throws IOException
+     */
+    public boolean seek(int index) throws IOException {
+        if (index < frameIndex) {
+            input.close();
+            open();
+        }
+        while (frameIndex < index)
+            if (!next()) return false;
+        return true;
+    }
+
+    private void readHeader() throws IOException {
+        int version = input.readInt();
+        if (version != GameTraceRecorder.VERSION)
+            throw new IOException("Unsupported trace version: " + version);
+        player = input.readByte();
+        width = input.readShort();
+        height = input.readShort();
+        terrain = new byte[width * height];
+        input.readFully(terrain);
+        units.clear();
+    }
+
+    private void readFrame() throws IOException {
+        time = input.readInt();
+
+        resources = new int[input.readByte()];
+        for (int i = 0; i < resources.length; i++)
+            resources[i] = input.readInt();
+
+        int removed = input.readInt();
+        for (int i = 0; i < removed; i++)
+            units.remove(input.readLong());
+
+        int changed = input.readInt();
+        for (int i = 0; i < changed; i++) {
+            long unitID = input.readLong();
+            units.put(unitID, new int[]{input.readShort(), input.readByte(), input.readShort(), input.readShort(),
+                    input.readInt(), input.readInt()});
+        }
+
+        int assignments = input.readInt();
+        assignedUnitIDs = new long[assignments];
+        assignedActions = new int[assignments];
+        assignmentTimes = new int[assignments];
+        for (int i = 0; i < assignments; i++) {
+            assignedUnitIDs[i] = input.readLong();
+            assignedActions[i] = input.readInt();
+            assignmentTimes[i] = input.readInt();
+        }
+
+        int actionCount = input.readInt();
+        actingUnitIDs = new long[actionCount];
+        actions = new int[actionCount];
+        for (int i = 0; i < actionCount; i++) {
+            actingUnitIDs[i] = input.readLong();
+            actions[i] = input.readInt();
+        }
+
+        decisionTime = input.readLong();
+        iterations = input.readLong();
+    }
+
+    /**
+     * Rebuilds the game state of the current frame: map, players, units, and unit-actions in progress.
+     *
+     * @return A new game state.
+     * @throws IllegalStateException If the frame's time cannot be restored, the game state's time field being
+     * inaccessible.
+     */
+    public GameState getGameState() {
+        PhysicalGameState physicalGameState = new PhysicalGameState(width, height);
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                physicalGameState.setTerrain(x, y, terrain[x + y * width]);
+        for (int i = 0; i < resources.length; i++)
+            physicalGameState.addPlayer(new Player(i, resources[i]));
+        for (Map.Entry<Long, int[]> entry : units.entrySet()) {
+            int[] fields = entry.getValue();
+            Unit unit = new Unit(entry.getKey(), fields[1], unitTypeTable.getUnitType(fields[0]), fields[2], fields[3],
+                    fields[4]);
+            unit.setHitPoints(fields[5]);
+            physicalGameState.addUnit(unit);
+        }
+
+        GameState gameState = new GameState(physicalGameState, unitTypeTable);
+        if (!FastForward.setTime(gameState, time) && time != 0)
+            throw new IllegalStateException("The time of frame " + frameIndex + " (" + time + ") cannot be restored");
+        for (int i = 0; i < assignedUnitIDs.length; i++) {
+            Unit unit = gameState.getUnit(assignedUnitIDs[i]);
+            gameState.getUnitActions().put(unit, new UnitActionAssignment(unit,
+                    PackedUnitAction.unpack(assignedActions[i], unitTypeTable), assignmentTimes[i]));
+        }
+        return gameState;
+    }
+
+    /**
+     * Rebuilds the action the bot returned in the current frame, over the units of the given game state.
+     *
+     * @param gameState A game state rebuilt from the current frame.
+     * @return A new player action.
+     */
+    public PlayerAction getPlayerAction(GameState gameState) {
+        PlayerAction playerAction = new PlayerAction();
+        for (int i = 0; i < actingUnitIDs.length; i++)
+            playerAction.addUnitAction(gameState.getUnit(actingUnitIDs[i]),
+                    PackedUnitAction.unpack(actions[i], unitTypeTable));
+        return playerAction;
+    }
+
+    public int getFrameIndex() {
+        return frameIndex;
+    }
+
+    public int getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the recording bot's player ID.
+     */
+    public int getPlayer() {
+        return player;
+    }
+
+    public int getMapWidth() {
+        return width;
+    }
+
+    public int getMapHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the time the bot took to decide, in nanoseconds.
+     */
+    public long getDecisionTime() {
+        return decisionTime;
+    }
+
+    public long getIterations() {
+        return iterations;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,279 @@
+package trace;
+
+import nmcts.PackedUnitAction;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.UnitAction;
+import rts.UnitActionAssignment;
+import rts.units.Unit;
+import util.Pair;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the game states a bot faced, the actions it returned and its search statistics, to a compact binary stream
+ * of length-prefixed records. A header record holds the map's layout, then each frame record holds the changes since
+ * the previous frame: the players' resources, the removed units, the new or changed units, the unit-action
+ * assignments in progress and the returned unit-actions, packed. A new header starts every game.
+ *
+ * The calling thread only takes a copy of the game state and of the returned unit-actions. Frames are encoded and
+ * written by a dedicated writer thread through a buffered stream, so that the decision path neither encodes nor waits
+ * on the disk. At most MAX_PENDING_FRAMES frames wait for the writer, frames arriving past that are dropped and
+ * counted, and the next frame starts over with a header. Once the writer failed, recording throws. See GameTraceReader
+ * to read traces back.
+ */
+public class GameTraceRecorder implements AutoCloseable {
+
+    // Format *********************************************************************************************************
+    static final int VERSION = 1;
+    static final byte HEADER = 0;
+    static final byte FRAME = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_PENDING_FRAMES = 1024;
+    private static final Frame END_OF_STREAM = new Frame(0, null, null, 0, 0, false);
+
+    private final DataOutputStream output;
+    private final BlockingQueue<Frame> frames = new LinkedBlockingQueue<>(MAX_PENDING_FRAMES);
+    private final Thread writer;
+    private volatile IOException writeError = null;
+    private int droppedFrames = 0;
+    private boolean restartPending = false; // A frame was dropped, the next one must be recorded in full.
+    private long recordingTime = 0; // Spent in record(), in nanoseconds.
+
+    // Writer thread state. The units of the previous frame, by ID: type, player, x, y, resources and hit points.
+    private final Map<Long, int[]> previousUnits = new HashMap<>();
+    private int previousTime = -1;
+
+    /**
+     * @param path The file receiving the trace, overwritten if it exists.
+     * @throws IOException
+     */
+    public GameTraceRecorder(String path) throws IOException {
+        this(new FileOutputStream(path));
+    }
+
+    /**
+     * @param outputStream The stream receiving the trace, closed with the recorder.
+     */
+    public GameTraceRecorder(OutputStream outputStream) {
+        this.output = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+        this.writer = new Thread(this::writeFrames, getClass().getSimpleName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Records a frame. A header is recorded first if this is the first frame of a game.
+     *
+     * @param player The bot's player ID.
+     * @param gameState The game state the bot faced.
+     * @param playerAction The action the bot returned.
+     * @param decisionTime The time taken to decide, in nanoseconds.
+     * @param iterations The search iterations run to decide.
+     * @throws IllegalStateException If the writer thread failed to write a previous record.
+     */
+    public void record(int player, GameState gameState, PlayerAction playerAction, long decisionTime, long iterations) {
+        long startTime = System.nanoTime();
+        if (writeError != null)
+            throw new IllegalStateException("The trace could not be written", writeError);
+
+        Frame frame = new Frame(player, gameState.clone(), new ArrayList<>(playerAction.getActions()), decisionTime,
+                iterations, restartPending);
+        if (frames.offer(frame))
+            restartPending = false;
+        else { // The following frames are relative to the dropped one, the next one is recorded in full.
+            droppedFrames++;
+            restartPending = true;
+        }
+        recordingTime += System.nanoTime() - startTime;
+    }
+
+    /**
+     * Returns the number of frames dropped because too many frames were waiting for the writer.
+     */
+    public int getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Returns the time spent recording on the calling thread, in nanoseconds. This overhead is added to the bot's
+     * decisions, but not to the recorded decision times.
+     */
+    public long getRecordingTime() {
+        return recordingTime;
+    }
+
+    private static byte[] encodeHeader(int player, PhysicalGameState physicalGameState) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(HEADER);
+        data.writeInt(VERSION);
+        data.writeByte(player);
+        data.writeShort(physicalGameState.getWidth());
+        data.writeShort(physicalGameState.getHeight());
+        for (int y = 0; y < physicalGameState.getHeight(); y++)
+            for (int x = 0; x < physicalGameState.getWidth(); x++)
+                data.writeByte(physicalGameState.getTerrain(x, y));
+        return bytes.toByteArray();
+    }
+
+    private byte[] encodeFrame(GameState gameState, List<Pair<Unit, UnitAction>> unitActions, long decisionTime,
+                               long iterations) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream data = new DataOutputStream(bytes);
+        PhysicalGameState physicalGameState = gameState.getPhysicalGameState();
+
+        data.writeByte(FRAME);
+        data.writeInt(gameState.getTime());
+
+        data.writeByte(physicalGameState.getPlayers().size());
+        for (int player = 0; player < physicalGameState.getPlayers().size(); player++)
+            data.writeInt(physicalGameState.getPlayer(player).getResources());
+
+        // Removed units.
+        Set<Long> unitIDs = new HashSet<>();
+        for (Unit unit : physicalGameState.getUnits())
+            unitIDs.add(unit.getID());
+        List<Long> removedUnitIDs = new ArrayList<>();
+        for (Long unitID : previousUnits.keySet())
+            if (!unitIDs.contains(unitID))
+                removedUnitIDs.add(unitID);
+        data.writeInt(removedUnitIDs.size());
+        for (Long unitID : removedUnitIDs) {
+            data.writeLong(unitID);
+            previousUnits.remove(unitID);
+        }
+
+        // New and changed units, in the order of the game state.
+        ByteArrayOutputStream unitBytes = new ByteArrayOutputStream();
+        DataOutputStream unitData = new DataOutputStream(unitBytes);
+        int changed = 0;
+        for (Unit unit : physicalGameState.getUnits()) {
+            int[] fields = {unit.getType().ID, unit.getPlayer(), unit.getX(), unit.getY(), unit.getResources(),
+                    unit.getHitPoints()};
+            int[] previousFields = previousUnits.put(unit.getID(), fields);
+            if (previousFields == null || !Arrays.equals(fields, previousFields)) {
+                unitData.writeLong(unit.getID());
+                unitData.writeShort(fields[0]);
+                unitData.writeByte(fields[1]);
+                unitData.writeShort(fields[2]);
+                unitData.writeShort(fields[3]);
+                unitData.writeInt(fields[4]);
+                unitData.writeInt(fields[5]);
+                changed++;
+            }
+        }
+        data.writeInt(changed);
+        unitBytes.writeTo(data);
+
+        // Unit-actions in progress, and their start times.
+        data.writeInt(gameState.getUnitActions().size());
+        for (UnitActionAssignment assignment : gameState.getUnitActions().values()) {
+            data.writeLong(assignment.unit.getID());
+            data.writeInt(PackedUnitAction.pack(assignment.action));
+            data.writeInt(assignment.time);
+        }
+
+        // The returned unit-actions.
+        data.writeInt(unitActions.size());
+        for (Pair<Unit, UnitAction> unitAction : unitActions) {
+            data.writeLong(unitAction.m_a.getID());
+            data.writeInt(PackedUnitAction.pack(unitAction.m_b));
+        }
+
+        data.writeLong(decisionTime);
+        data.writeLong(iterations);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The writer thread's loop: encodes the frames and writes them, length-prefixed, until the end of the stream.
+     */
+    private void writeFrames() {
+        try {
+            while (true) {
+                Frame frame = frames.take();
+                if (frame == END_OF_STREAM)
+                    break;
+                int time = frame.gameState.getTime();
+                if (frame.restart || time <= previousTime || previousTime == -1) { // A new game, or frames were dropped.
+                    previousUnits.clear();
+                    writeRecord(encodeHeader(frame.player, frame.gameState.getPhysicalGameState()));
+                }
+                writeRecord(encodeFrame(frame.gameState, frame.unitActions, frame.decisionTime, frame.iterations));
+                previousTime = time;
+                if (frames.isEmpty())
+                    output.flush();
+            }
+        } catch (IOException exception) {
+            writeError = exception;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeRecord(byte[] record) throws IOException {
+        output.writeInt(record.length);
+        output.write(record);
+    }
+
+    /**
+     * Writes the pending frames, and closes the stream.
+     *
+     * @throws IOException If a record could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            // The writer stops taking frames if it failed, the queue may then stay full.
+            while (!frames.offer(END_OF_STREAM, 100, TimeUnit.MILLISECONDS))
+                if (!writer.isAlive())
+                    break;
+            writer.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        output.close();
+        if (writeError != null)
+            throw writeError;
+    }
+
+    /**
+     * A frame waiting for the writer: copies of the game state and of the returned unit-actions.
+     */
+    private static final class Frame {
+        final int player;
+        final GameState gameState;
+        final List<Pair<Unit, UnitAction>> unitActions;
+        final long decisionTime;
+        final long iterations;
+        final boolean restart; // Frames were dropped before this one.
+
+        Frame(int player, GameState gameState, List<Pair<Unit, UnitAction>> unitActions, long decisionTime,
+              long iterations, boolean restart) {
+            this.player = player;
+            this.gameState = gameState;
+            this.unitActions = unitActions;
+            this.decisionTime = decisionTime;
+            this.iterations = iterations;
+            this.restart = restart;
+        }
+    }
+}